@@ -0,0 +1,38 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Entry point of benchmarks.jar: the usual JMH command line, with the gc
+ * profiler always on so every run reports allocation per operation next to
+ * throughput and average time.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * Loads a map from the repository's data directory, found relative to
+     * either the benchmarks module or the repository root.
+     */
+    static State.StateView loadMap(String name) throws Exception {
+        for (String dir : new String[] { "../data", "data" }) {
+            File file = new File(dir, name);
+            if (file.isFile()) {
+                return MapLoader.load(file.getPath());
+            }
+        }
+        throw new IllegalArgumentException("Map " + name + " not found in ../data or data");
+    }
+}
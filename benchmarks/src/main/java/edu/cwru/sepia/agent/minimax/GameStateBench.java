@@ -0,0 +1,73 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node generation and evaluation on the starting position of each map:
+ * building every child, walking the staged child cursor, generating and
+ * playing every move in place, and evaluating incrementally or from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBench {
+
+    @Param({ "Combat.xml", "Game2fv2a.xml", "Game2fv2a_Obstacles.xml", "Game2fv1a_Obstacles.xml" })
+    public String map;
+
+    private GameState state;
+    private final int[] moves = new int[64];
+
+    @Setup
+    public void setUp() throws Exception {
+        state = new GameState(BenchmarkMain.loadMap(map));
+    }
+
+    @Benchmark
+    public List<GameStateChild> getChildren() {
+        return state.getChildren();
+    }
+
+    /** The first child of the staged cursor, as a search that cuts off right away sees it */
+    @Benchmark
+    public GameStateChild firstStagedChild() {
+        return state.childIterator(true).next();
+    }
+
+    @Benchmark
+    public void makeUnmakeAll(Blackhole blackhole) {
+        int count = state.getMoves(moves, null);
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            blackhole.consume(state.getUtility());
+            state.unmakeMove();
+        }
+    }
+
+    @Benchmark
+    public double getUtility() {
+        return state.getUtility();
+    }
+
+    @Benchmark
+    public int computeUtility() {
+        return state.computeUtility();
+    }
+}
@@ -0,0 +1,80 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the packed GameState against the original UnitInfo/LinkedList
+ * layout (UnitListGameState) by expanding the full game tree of a map to a
+ * fixed depth and measuring nodes/sec and bytes allocated per node.
+ *
+ * Usage: GameStateBenchmark [mapFile] [depth] [iterations]
+ * Run from the repository root, like SearchBenchmark.
+ */
+public class GameStateBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        String mapFile = args.length > 0 ? args[0] : "data/Game2fv2a.xml";
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        State.StateView view = MapLoader.load(mapFile);
+        System.out.println("map=" + mapFile + " depth=" + depth);
+
+        for (int i = 0; i <= iterations; i++) {
+            // The first round is a JIT warm-up and is not reported
+            boolean report = i > 0;
+            measure("unitlist", report, new Expansion() {
+                public long run() {
+                    return expand(new UnitListGameState(view), depth);
+                }
+            });
+            measure("packed", report, new Expansion() {
+                public long run() {
+                    return expand(new GameState(view), depth);
+                }
+            });
+        }
+    }
+
+    private interface Expansion {
+        long run();
+    }
+
+    private static void measure(String name, boolean report, Expansion expansion) {
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long nodes = expansion.run();
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getThreadAllocatedBytes(threadId) - bytesBefore;
+        if (report) {
+            System.out.printf("%-9s nodes=%d time=%.1fms nodes/sec=%.0f bytes/node=%.1f%n",
+                    name, nodes, elapsed / 1e6, nodes / (elapsed / 1e9), (double) bytes / nodes);
+        }
+    }
+
+    static long expand(GameState state, int depth) {
+        long nodes = 1;
+        if (depth > 0) {
+            for (GameStateChild child : state.getChildren()) {
+                nodes += expand(child.state, depth - 1);
+            }
+        }
+        return nodes;
+    }
+
+    static long expand(UnitListGameState state, int depth) {
+        long nodes = 1;
+        if (depth > 0) {
+            for (UnitListGameState.Child child : state.getChildren()) {
+                nodes += expand(child.state, depth - 1);
+            }
+        }
+        return nodes;
+    }
+}
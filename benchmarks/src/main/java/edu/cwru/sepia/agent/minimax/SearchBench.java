@@ -0,0 +1,69 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole fixed-depth search from the starting position of each map, through
+ * MinimaxAlphaBeta.middleStep as SEPIA calls it, once per agent
+ * configuration. Every invocation gets a fresh agent so the transposition
+ * table starts empty; the table's own allocation is therefore part of the
+ * search=unmake numbers (about 6MB at the default tt=18). The tt=0
+ * configuration shows what the search itself allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBench {
+
+    @Param({ "Combat.xml", "Game2fv2a.xml", "Game2fv2a_Obstacles.xml", "Game2fv1a_Obstacles.xml" })
+    public String map;
+
+    @Param({ "4", "6" })
+    public int depth;
+
+    /** Agent options, as after the number of plys on the agent's command line */
+    @Param({ "search=copy", "search=unmake", "search=unmake tt=0", "search=unmake pvs=on" })
+    public String options;
+
+    private edu.cwru.sepia.environment.model.state.State.StateView view;
+    private MinimaxAlphaBeta agent;
+
+    @Setup(Level.Trial)
+    public void loadMap() throws Exception {
+        view = BenchmarkMain.loadMap(map);
+    }
+
+    @Setup(Level.Invocation)
+    public void newAgent() {
+        String[] split = options.trim().split("\\s+");
+        // Statistics off, so the numbers are the search alone; options can turn them back on
+        String[] args = new String[split.length + 2];
+        args[0] = Integer.toString(depth);
+        args[1] = "stats=off";
+        System.arraycopy(split, 0, args, 2, split.length);
+        agent = new MinimaxAlphaBeta(0, args);
+    }
+
+    @Benchmark
+    public Map<Integer, Action> alphaBetaSearch() {
+        return agent.middleStep(view, null);
+    }
+}
@@ -0,0 +1,118 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Runs MinimaxAlphaBeta on the starting position of each map with each of the
+ * given agent configurations and reports the chosen action, node count,
+ * nodes/sec, transposition table hit rate, effective branching factor (the
+ * depth-th root of the node count), share of beta cutoffs caused by the
+ * first move searched and root value. A configuration choosing another
+ * action or finding another value than the first one is flagged; with -strict
+ * that also makes the run exit with status 1, for configurations that must
+ * agree exactly. -strict-value only fails on a different value, for
+ * configurations that may break ties between equal moves differently, such as
+ * the threads=N scaling runs.
+ *
+ * Usage: SearchBenchmark [-strict | -strict-value] depth map... [-- option...]
+ * Run from the repository root, where the default maps are found, e.g.
+ * java -cp benchmarks/target/benchmarks.jar:lib/Sepia.jar edu.cwru.sepia.agent.minimax.SearchBenchmark 4
+ * Each option is a space separated list of agent options forming one
+ * configuration, e.g. "search=copy" "search=unmake". Defaults to comparing
+ * search=copy against search=unmake.
+ *
+ * PVS against plain alpha-beta at equal depth, with and without iterative
+ * deepening (a time budget long enough to always reach the depth):
+ * SearchBenchmark -strict-value 6 -- pvs=off pvs=on "pvs=off timeMs=600000" "pvs=on timeMs=600000"
+ *
+ * Symmetry reduction, which may drop the move chosen without it for an
+ * equivalent one: SearchBenchmark -strict-value 6 -- symmetry=off symmetry=on "search=copy symmetry=off" "search=copy symmetry=on"
+ *
+ * Factored per-unit moves against joint moves, which find the same value on
+ * maps with two units a side (with more, joint moves only move two of them):
+ * SearchBenchmark -strict-value 5 -- factored=off factored=on
+ * and with three and four footmen:
+ * SearchBenchmark 5 data/Game3fv2a.xml data/Game4fv2a.xml -- factored=off factored=on
+ *
+ * Quiescence search against evaluating every node at the depth, which finds
+ * other values wherever the search ends in the middle of a fight:
+ * SearchBenchmark 4 -- quiescence=0 quiescence=16
+ *
+ * Thread scaling: SearchBenchmark -strict-value 6 -- threads=1 threads=2 threads=4 threads=8
+ */
+public class SearchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean strict = args.length > 0 && args[0].equals("-strict");
+        boolean strictValue = strict || args.length > 0 && args[0].equals("-strict-value");
+        if (strictValue) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int split = args.length;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                split = i;
+                break;
+            }
+        }
+        String[] maps = split > 1 ? Arrays.copyOfRange(args, 1, split)
+                : new String[] { "data/Combat.xml", "data/Game2fv2a.xml", "data/Game2fv2a_Obstacles.xml" };
+        String[] configs = split < args.length ? Arrays.copyOfRange(args, split + 1, args.length)
+                : new String[] { "search=copy", "search=unmake" };
+
+        boolean mismatch = false;
+        boolean valueMismatch = false;
+        for (String map : maps) {
+            State.StateView view = MapLoader.load(map);
+            System.out.println("map=" + map + " depth=" + depth);
+            String expected = null;
+            double expectedValue = 0;
+            for (String config : configs) {
+                String[] options = config.trim().isEmpty() ? new String[0] : config.trim().split("\\s+");
+                // Count without printing a line per search; a configuration may still override it
+                String[] agentArgs = new String[options.length + 2];
+                agentArgs[0] = Integer.toString(depth);
+                agentArgs[1] = "stats=count";
+                System.arraycopy(options, 0, agentArgs, 2, options.length);
+
+                // Warm up the JIT on a throwaway agent so the timed one starts with empty tables
+                new MinimaxAlphaBeta(0, agentArgs).middleStep(view, null);
+                MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, agentArgs);
+                long start = System.nanoTime();
+                Map<Integer, Action> actions = agent.middleStep(view, null);
+                long elapsed = System.nanoTime() - start;
+
+                String chosen = actions.toString();
+                boolean same = expected == null || expected.equals(chosen);
+                boolean sameValue = expected == null || expectedValue == agent.rootValue;
+                mismatch |= !same;
+                valueMismatch |= !sameValue;
+                if (expected == null) {
+                    expected = chosen;
+                    expectedValue = agent.rootValue;
+                }
+                int searched = agent.completedDepth > 0 ? agent.completedDepth : depth;
+                // A stats=off configuration has no counters and reports zeros
+                SearchStats stats = agent.stats != null ? agent.stats : new SearchStats();
+                long nodes = stats.nodes.sum();
+                long probes = stats.ttProbes.sum();
+                long cutoffs = stats.cutoffs();
+                System.out.printf("  %-24s nodes=%d time=%.1fms nodes/sec=%.0f tt-hits=%.1f%% tt-cutoffs=%d researches=%d"
+                        + " aspiration-fails=%d depth=%d ebf=%.2f first-move-cutoffs=%.1f%% value=%.1f %s%s%s%n",
+                        config, nodes, elapsed / 1e6, nodes / (elapsed / 1e9),
+                        probes == 0 ? 0 : 100.0 * stats.ttHits.sum() / probes, stats.ttCutoffs.sum(),
+                        stats.researches.sum(), stats.aspirationFails.sum(), searched, Math.pow(nodes, 1.0 / searched),
+                        cutoffs == 0 ? 0 : 100.0 * stats.cutoffsByChild[0].sum() / cutoffs,
+                        agent.rootValue, chosen, same ? "" : " DIFFERENT", sameValue ? "" : " DIFFERENT-VALUE");
+            }
+        }
+        if (strict && mismatch || strictValue && valueMismatch) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+import edu.cwru.sepia.environment.model.state.UnitTemplate.UnitTemplateView;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.*;
+
+/**
+ * The original object-per-unit layout of GameState (UnitInfo records in
+ * LinkedLists, a fresh HashMap of actions per child). It is not part of the
+ * agent and is only kept here so GameStateBenchmark has a baseline to
+ * compare the packed layout against.
+ */
+class UnitListGameState {
+
+	private int xExtent;
+	private int yExtent;
+	private List<UnitInfo> mmUnits;
+	private List<UnitInfo> archers;
+	private Set<ResourceInfo> resources;
+	private int turnNumber;
+	private Map<Integer, Action> lastActions;
+
+	static class Child {
+		public final Map<Integer, Action> action;
+		public final UnitListGameState state;
+
+		Child(Map<Integer, Action> action, UnitListGameState state){
+			this.action = action;
+			this.state = state;
+		}
+	}
+
+	private class ResourceInfo{
+		public final int x;
+		public final int y;
+
+		public ResourceInfo(int x, int y){
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public int hashCode(){
+			return Integer.valueOf(x).hashCode() + Integer.valueOf(y).hashCode()*37;
+		}
+		@Override
+		public boolean equals(Object o){
+			if(o instanceof ResourceInfo){
+				ResourceInfo ri = (ResourceInfo) o;
+				return ri.x == x && ri.y == y;
+			}
+			return false;
+		}
+	}
+
+	private class UnitInfo{
+		public final int id;
+		public final int x;
+		public final int y;
+		public final int range;
+		public final int attk;
+		public final int curHealth;
+		public final int baseHealth;
+		public final boolean isMMUnit;
+
+		public UnitInfo(int id, int x, int y, int range, int attk, int curHealth, int baseHealth, boolean isMMUnit){
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.range = range;
+			this.attk = attk;
+			this.curHealth = curHealth;
+			this.baseHealth = baseHealth;
+			this.isMMUnit = isMMUnit;
+		}
+
+		public boolean isAt(int x, int y){
+			return this.x == x && this.y == y;
+		}
+
+		@Override
+		public int hashCode(){
+			return Integer.valueOf(id).hashCode();
+		}
+		@Override
+		public boolean equals(Object o){
+			if(o instanceof UnitInfo){
+				UnitInfo u = (UnitInfo) o;
+				return u.id == this.id;
+			}
+			return false;
+		}
+	}
+
+	private UnitInfo getUnitAt(List<UnitInfo> units, int x, int y) {
+		Iterator<UnitInfo> it = units.iterator();
+		UnitInfo cur;
+		while(it.hasNext()){
+			cur = it.next();
+			if(cur.isAt(x, y)){
+				return cur;
+			}
+		}
+		return null;
+	}
+
+	private List<UnitInfo> extractUnitInfo(List<UnitView> units, boolean isMMUnits){
+		List<UnitInfo> ret = new LinkedList<UnitInfo>();
+		Iterator<UnitView> it = units.iterator();
+		UnitView cur;
+		UnitTemplateView curTemp;
+		while(it.hasNext()){
+			cur = it.next();
+			curTemp = cur.getTemplateView();
+			ret.add(
+					new UnitInfo(
+							cur.getID(),
+							cur.getXPosition(),
+							cur.getYPosition(),
+							curTemp.getRange(),
+							curTemp.getBasicAttack(),
+							cur.getHP(),
+							curTemp.getBaseHealth(),
+							isMMUnits
+							)
+					);
+		}
+		return ret;
+	}
+
+	private Set<ResourceInfo> extractResourceInfo(State.StateView state){
+		Set<ResourceInfo> ret = new HashSet<ResourceInfo>();
+		Iterator<Integer> it = state.getAllResourceIds().iterator();
+		ResourceView cur;
+		while(it.hasNext()){
+			cur = state.getResourceNode(it.next());
+			ret.add( new ResourceInfo(cur.getXPosition(), cur.getYPosition()));
+		}
+		return ret;
+	}
+
+    UnitListGameState(State.StateView state) {
+    	xExtent = state.getXExtent();
+    	yExtent = state.getYExtent();
+    	mmUnits = extractUnitInfo(state.getUnits(0), true);
+    	archers = extractUnitInfo(state.getUnits(1), false);
+    	resources = extractResourceInfo(state);
+    	turnNumber = state.getTurnNumber();
+    	lastActions = new HashMap<Integer, Action>();
+    }
+
+    private UnitListGameState(int xExtent, int yExtent, List<UnitInfo> mmUnits, List<UnitInfo> archers, Set<ResourceInfo> resources, int turnNumber,
+    						Map<Integer, Action> prev){
+    	this.xExtent = xExtent;
+    	this.yExtent = yExtent;
+    	this.mmUnits = mmUnits;
+    	this.archers = archers;
+    	this.resources = resources;
+    	this.turnNumber = turnNumber;
+    	this.lastActions = prev;
+    }
+
+    public double getUtility() {
+    	double ret = 0;
+    	for(UnitInfo mmInfo: mmUnits){
+    		for(UnitInfo archInfo : archers){
+    			ret -= Math.abs(mmInfo.x - archInfo.x) + Math.abs(mmInfo.y - archInfo.y);
+    		}
+    	}
+    	return ret;
+    }
+
+	public boolean isMMTurn(){
+    	return this.turnNumber % 2 == 0;
+    }
+
+    private List<Child> getUnitMoves(UnitInfo unit, UnitListGameState gameState, Map<Integer, Action> actions, int maxMapIndex){
+    	List<Child> children = new ArrayList<Child>();
+    	if(unit.curHealth == 0){
+    		return children;
+    	}
+    	List<UnitInfo> enemies = isMMTurn() ? gameState.archers : gameState.mmUnits;
+    	List<UnitInfo> myUnits = isMMTurn() ? gameState.mmUnits : gameState.archers;
+
+    	for(Direction direction: Direction.values()){
+    		int x = unit.x + direction.xComponent();
+    		int y = unit.y + direction.yComponent();
+    		if(!isValidPoint(direction,x,y)){
+    			continue;
+    		}
+    		UnitInfo enemy = getUnitAt(enemies, x, y);
+    		if(enemy != null){
+    			Action a = Action.createPrimitiveAttack(unit.id, enemy.id);
+    			List<UnitInfo> allUnits = new ArrayList<UnitInfo>();
+    	    	allUnits.addAll(mmUnits);
+    	    	allUnits.addAll(archers);
+    			allUnits.remove(enemy);
+    			allUnits.add(new UnitInfo(enemy.id, enemy.x, enemy.y, enemy.range, enemy.attk, enemy.curHealth - unit.attk, enemy.baseHealth, enemy.isMMUnit));
+
+    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
+    			List<UnitInfo> newArchers = new LinkedList<UnitInfo>();
+    			separateMMUnits(allUnits, newMMUnits, newArchers);
+
+    			Map<Integer, Action> newActions = new HashMap<Integer, Action>();
+    			newActions.putAll(actions);
+    			newActions.put(maxMapIndex + 1, a);
+    			UnitListGameState newGameState = new UnitListGameState(this.xExtent, this.yExtent, newMMUnits, newArchers, this.resources, this.turnNumber + 1, newActions);
+    			children.add(new Child(newActions, newGameState));
+    		}else if(!resourceAt(x,y) && getUnitAt(myUnits, x, y) == null){
+    			Action a = Action.createPrimitiveMove(unit.id, direction);
+    			List<UnitInfo> allUnits = new ArrayList<UnitInfo>();
+    	    	allUnits.addAll(mmUnits);
+    	    	allUnits.addAll(archers);
+    			allUnits.remove(unit);
+    			allUnits.add(new UnitInfo(unit.id, x, y, unit.range, unit.attk, unit.curHealth, unit.baseHealth, unit.isMMUnit));
+
+    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
+    			List<UnitInfo> newArchers = new LinkedList<UnitInfo>();
+    			separateMMUnits(allUnits, newMMUnits, newArchers);
+
+    			Map<Integer, Action> newActions = new HashMap<Integer, Action>();
+    			newActions.putAll(actions);
+    			newActions.put(maxMapIndex + 1, a);
+    			UnitListGameState newGameState = new UnitListGameState(this.xExtent, this.yExtent, newMMUnits, newArchers, this.resources, this.turnNumber + 1, newActions);
+    			children.add(new Child(newActions, newGameState));
+    		}
+    	}
+    	return children;
+    }
+
+    private boolean isValidPoint(Direction d, int x, int y) {
+		return d.xComponent() + d.yComponent() <= 1 && x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+
+	private void separateMMUnits(List<UnitInfo> all, List<UnitInfo> mm, List<UnitInfo> arch){
+    	for(UnitInfo u : all){
+			if(u.isMMUnit){
+				mm.add(u);
+			}else{
+				arch.add(u);
+			}
+		}
+    }
+
+    private boolean resourceAt(int x, int y){
+    	return resources.contains(new ResourceInfo(x, y));
+    }
+
+    public List<Child> getChildren() {
+    	List<Child> ret = new LinkedList<Child>();
+
+    	UnitInfo unit1 = null;
+    	UnitInfo unit2 = null;
+    	if(isMMTurn()){
+    		unit1 = mmUnits.get(0);
+    		if(mmUnits.size() > 1){
+    			unit2 = mmUnits.get(1);
+    		}
+    	}else{
+    		unit1 = archers.get(0);
+    		if(archers.size() > 1){
+    			unit2 = archers.get(1);
+    		}
+    	}
+
+    	Map<Integer, Action> firstActions = isMMTurn()? new HashMap<Integer, Action>() : lastActions;
+    	List<Child> unit1Moves = getUnitMoves(unit1, this, firstActions, -1);
+    	if(unit2 != null){
+    		for(Child child : unit1Moves){
+    			ret.addAll(getUnitMoves(unit2, child.state, child.action, 0));
+    		}
+    	}else{
+    		ret.addAll(unit1Moves);
+    	}
+    	return ret;
+    }
+}
@@ -0,0 +1,97 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.Test;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the utility GameState keeps up to date move by move against
+ * computeUtility(), which works it out from scratch: random games are played
+ * with makeMove on every map in data/ and unwound again with unmakeMove,
+ * comparing the two after every move either way, with joint and with
+ * factored moves.
+ */
+public class GameStateUtilityTest {
+
+    private static final File DATA = new File("../data");
+    private static final int GAMES = 20;
+    private static final int MAX_MOVES = 120;
+
+    @Test
+    public void incrementalUtilityMatchesRecomputed() throws Exception {
+        List<File> maps = maps();
+        assertFalse("No maps in " + DATA.getAbsolutePath(), maps.isEmpty());
+        int moves = 0;
+        for (File map : maps) {
+            for (boolean factored : new boolean[] { false, true }) {
+                for (int game = 0; game < GAMES; game++) {
+                    moves += play(map, factored, game);
+                }
+            }
+        }
+        assertTrue("No moves played", moves > 0);
+    }
+
+    /**
+     * @return The number of moves played
+     */
+    private static int play(File map, boolean factored, int seed) throws Exception {
+        GameState state = new GameState(MapLoader.load(map.getPath()), true, factored);
+        String game = map.getName() + (factored ? " factored" : "") + " game " + seed;
+        Random random = new Random(seed);
+        int[] moves = new int[4096];
+        int[] utilities = new int[MAX_MOVES + 1];
+        utilities[0] = checkUtility(state, game + " at the start");
+        int played = 0;
+        while (played < MAX_MOVES) {
+            int count = state.getMoves(moves, null);
+            if (count == 0) {
+                break;
+            }
+            state.makeMove(moves[random.nextInt(count)]);
+            played++;
+            utilities[played] = checkUtility(state, game + " after move " + played);
+        }
+        for (int move = played; move > 0; move--) {
+            state.unmakeMove();
+            String where = game + " after unmaking move " + move;
+            assertEquals(where, utilities[move - 1], checkUtility(state, where));
+        }
+        return played;
+    }
+
+    private static int checkUtility(GameState state, String where) {
+        int utility = state.computeUtility();
+        assertEquals(where, utility, state.getUtility(), 0);
+        return utility;
+    }
+
+    /**
+     * @return The game maps in data/, telling them apart from the configs by their state root element
+     */
+    private static List<File> maps() throws Exception {
+        List<File> maps = new ArrayList<File>();
+        File[] files = DATA.listFiles();
+        if (files == null) {
+            return maps;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".xml") && rootElement(file).equals("state")) {
+                maps.add(file);
+            }
+        }
+        return maps;
+    }
+
+    private static String rootElement(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement().getTagName();
+    }
+}
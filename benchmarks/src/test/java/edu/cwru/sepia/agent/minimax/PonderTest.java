@@ -0,0 +1,57 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Ponderer predicts the position the next turn really starts
+ * from: the agent's turn is searched and pondered, then the agent's move and
+ * the archers' reply of the principal variation are played on the SEPIA state
+ * and the next turn's GameState is built from its view, as middleStep does.
+ */
+public class PonderTest {
+
+    private static final String MAP = "../data/Game2fv2a.xml";
+    private static final int DEPTH = 4;
+
+    @Test
+    public void pondersTheNextTurnsPosition() throws Exception {
+        assertPonderHit(false);
+    }
+
+    @Test
+    public void pondersTheNextTurnsPositionWithFactoredMoves() throws Exception {
+        assertPonderHit(true);
+    }
+
+    private static void assertPonderHit(boolean factored) throws Exception {
+        State sepia = MapLoader.loadState(MAP);
+        GameState state = new GameState(sepia.getView(Agent.OBSERVER_ID), false, factored);
+        // Without a transposition table no cutoff cuts the principal variation short of the reply
+        AlphaBetaSearcher searcher = new AlphaBetaSearcher(null, null, true, true, 0, 1, null);
+        searcher.search(state, DEPTH, 0);
+        int[] pv = searcher.principalVariation();
+        Ponderer ponderer = new Ponderer(null, null, true, true, 0, DEPTH, false);
+        ponderer.start(state, pv);
+
+        GameState replied = state.copy();
+        for (int i = 0; replied.getTurnNumber() < state.getTurnNumber() + 2; i++) {
+            assertTrue("The principal variation ends before the archers' reply", i < pv.length);
+            replied.makeMove(pv[i]);
+        }
+        for (int unit = 0; unit < replied.getNumUnits(); unit++) {
+            Unit sepiaUnit = sepia.getUnit(replied.get(unit, GameState.ID));
+            sepia.transportUnit(sepiaUnit, replied.get(unit, GameState.X), replied.get(unit, GameState.Y));
+            sepiaUnit.setHP(replied.get(unit, GameState.HP));
+            sepiaUnit.deprecateOldView();
+        }
+        sepia.incrementTurn();
+
+        GameState next = new GameState(sepia.getView(Agent.OBSERVER_ID), false, factored);
+        assertTrue("The pondered position is not the next turn's", ponderer.stop(next, null));
+    }
+}
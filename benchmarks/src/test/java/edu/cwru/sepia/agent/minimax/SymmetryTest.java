@@ -0,0 +1,88 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.Test;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that leaving out symmetric children (see Symmetry) does not change
+ * what the search finds: the start of every map in data/ and positions a few
+ * random moves into it are searched with and without symmetry reduction, with
+ * joint and with factored moves, and the root values compared.
+ */
+public class SymmetryTest {
+
+    private static final File DATA = new File("../data");
+    private static final int DEPTH = 4;
+    private static final int POSITIONS = 10;
+    private static final int MAX_RANDOM_MOVES = 30;
+
+    @Test
+    public void symmetryReductionKeepsRootValues() throws Exception {
+        List<File> maps = maps();
+        assertFalse("No maps in " + DATA.getAbsolutePath(), maps.isEmpty());
+        for (File map : maps) {
+            for (boolean factored : new boolean[] { false, true }) {
+                for (int seed = 0; seed < POSITIONS; seed++) {
+                    compare(map, factored, seed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the position seed random moves into the map, the start for seed 0,
+     * with and without symmetry reduction.
+     */
+    private static void compare(File map, boolean factored, int seed) throws Exception {
+        GameState reduced = new GameState(MapLoader.load(map.getPath()), true, factored);
+        GameState full = new GameState(MapLoader.load(map.getPath()), false, factored);
+        Random random = new Random(seed);
+        int[] moves = new int[4096];
+        int played = seed == 0 ? 0 : random.nextInt(MAX_RANDOM_MOVES);
+        for (int i = 0; i < played && !full.isTerminal(); i++) {
+            int move = moves[random.nextInt(full.getMoves(moves, null))];
+            full.makeMove(move);
+            reduced.makeMove(move);
+        }
+        if (full.isTerminal()) {
+            return;
+        }
+        String where = map.getName() + (factored ? " factored" : "") + " position " + seed;
+        assertEquals(where, rootValue(full), rootValue(reduced), 0);
+    }
+
+    private static double rootValue(GameState state) {
+        AlphaBetaSearcher searcher = new AlphaBetaSearcher(null, null, true, false, 0, 1, null);
+        searcher.search(state, DEPTH, 0);
+        return searcher.rootValue;
+    }
+
+    /**
+     * @return The game maps in data/, telling them apart from the configs by their state root element
+     */
+    private static List<File> maps() throws Exception {
+        List<File> maps = new ArrayList<File>();
+        File[] files = DATA.listFiles();
+        if (files == null) {
+            return maps;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".xml") && rootElement(file).equals("state")) {
+                maps.add(file);
+            }
+        }
+        return maps;
+    }
+
+    private static String rootElement(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement().getTagName();
+    }
+}
@@ -0,0 +1,1033 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The in-place alpha-beta search behind MinimaxAlphaBeta's search=unmake mode.
+ * It plays moves on one GameState with makeMove/unmakeMove and keeps all of
+ * its per-ply buffers, killer moves and history scores itself, so a searcher
+ * must only be used by one thread at a time.
+ *
+ * With more than one thread the search splits nodes Young Brothers Wait style:
+ * once the first child of a node at least MIN_SPLIT_DEPTH deep has been
+ * searched and has not caused a cutoff, its younger brothers are searched in
+ * parallel as ForkJoin tasks, each by a searcher of its own on a copy of the
+ * position. The transposition table is shared. The brothers share the node's
+ * alpha-beta window through a SplitPoint: a task starts with the best bound
+ * found so far, and a cutoff stops the brothers still running.
+ *
+ * With PVS (principal variation search) only the first child of a node is
+ * searched with the full window. The others are first searched with a null
+ * window, which only tells whether they beat the best value so far, and are
+ * searched again with the full window when they do. With iterative deepening
+ * the root of each iteration after the first is searched within an aspiration
+ * window of ASPIRATION_WINDOW around the previous iteration's value, opening
+ * the side it falls out of when it does.
+ *
+ * Depths count plys of joint moves. With factored moves (see
+ * GameState.getMoves) the search counts unit plies instead, two to a ply:
+ * every unit's action uses up one, and a side's turn of a single unit uses
+ * up two, so a turn of one or two units takes a ply as with joint moves and
+ * every further two units another. A turn thus costs about 5 moves per unit
+ * searched rather than 5^N, and a search of depth N expands about as many
+ * unit actions as a joint one. The root's own turn is always searched to its
+ * end, however many units it takes, and its nodes never take a transposition
+ * table cutoff, so the principal variation holds an action for every unit of
+ * the side.
+ *
+ * With quiescence search, a node at the search depth is not evaluated as it
+ * stands while the side to move can still attack: only the attacks of the
+ * side (see GameState.getCaptures) are searched on from it, up to the given
+ * number of moves further, until neither side can attack. At every node of
+ * it the side to move may also stand pat, take the position's utility and
+ * not attack at all, which cuts off every node whose utility is already
+ * outside the window.
+ *
+ * With a Tablebase for the map, every node below the root is looked up in it
+ * before anything else. A game it decides is not searched: a footman win in
+ * n moves from a node at ply p scores Tablebase.WIN_VALUE - (p + n), and a
+ * game over at ply p scores WIN_VALUE - p for the side left standing, so a
+ * proven win always beats the heuristic values and the quickest one from
+ * the root is preferred. The transposition table keeps such scores as the
+ * distance from the node stored, not from the root, as the same position
+ * can come up at another ply or in another search.
+ */
+final class AlphaBetaSearcher {
+
+    /** Deepest ply the search tables are sized for */
+    static final int MAX_PLY = 64;
+    /** Remaining depth a node needs before its children are searched in parallel */
+    private static final int MIN_SPLIT_DEPTH = 3;
+
+    /* Killer moves are scored below every attack but above every other move */
+    private static final int KILLER_SCORE = GameState.ATTACK_SCORE / 2;
+    /* History scores are halved once one reaches this, so they stay below KILLER_SCORE */
+    private static final int HISTORY_LIMIT = KILLER_SCORE / 4;
+    /* Weight of one square of closing distance against the history score */
+    private static final int CLOSING_WEIGHT = 64;
+    /* Half width of the aspiration window, a few squares of distance or a few HP */
+    private static final double ASPIRATION_WINDOW = 16;
+    /* Scores beyond this either way are decided games, far above any utility */
+    private static final double WIN_BOUND = Tablebase.WIN_VALUE / 2;
+
+    private final TranspositionTable transpositions;
+    private final TranspositionTable.Entry ttEntry = new TranspositionTable.Entry();
+    /* Solved endgames, or null for none */
+    private final Tablebase tablebase;
+    private final boolean ordering;
+    private final boolean pvs;
+    /* Most moves the quiescence search goes past the depth, 0 for none */
+    private final int quiescence;
+    /* The threads and spare searchers of a parallel search, null when searching alone */
+    private final Workers workers;
+
+    /* Per-ply move lists and triangular principal variation table */
+    private final int[][] moveBuffers = new int[MAX_PLY][64];
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    /* Principal variation of the last finished iteration and whether the search is still on it */
+    private final int[] previousPv = new int[MAX_PLY];
+    private int previousPvLength;
+    private boolean followPv;
+    private long deadline;
+    /* Number of moves in the root's turn; the nodes of the plies before it are in that turn */
+    private int rootTurnMoves;
+    private boolean aborted;
+    /* Set by another thread to end a ponder search, see requestStop */
+    private volatile boolean stopRequested;
+    /* The split point this searcher's task belongs to, its cutoff stops the task */
+    private SplitPoint scope;
+    /* Per-ply move scores and two killer moves, and history scores by unit action */
+    private final int[][] scoreBuffers = new int[MAX_PLY][64];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[] history = new int[1 << (GameState.ACTION_BITS - 1)];
+
+    /* Shared counters, or null when statistics are off */
+    private final SearchStats stats;
+    /* Nodes this searcher visited, to look at the clock every 1024 of them */
+    private long clockCheck;
+
+    /* Result of the last search */
+    int completedDepth;
+    double rootValue;
+
+    /**
+     * @param transpositions The table to use, or null for none
+     * @param tablebase The endgame table to look positions up in, or null for none
+     * @param pvs Whether to use principal variation search and aspiration windows
+     * @param quiescence The most moves to search past the depth while there are attacks, 0 for none
+     * @param threads The number of threads to search with
+     * @param stats The counters every thread of the search adds to, or null for none
+     */
+    AlphaBetaSearcher(TranspositionTable transpositions, Tablebase tablebase, boolean ordering, boolean pvs,
+                      int quiescence, int threads, SearchStats stats)
+    {
+        this(transpositions, tablebase, ordering, pvs, quiescence,
+                threads > 1 ? new Workers(threads, transpositions, tablebase, ordering, pvs, quiescence, stats) : null,
+                stats);
+    }
+
+    private AlphaBetaSearcher(TranspositionTable transpositions, Tablebase tablebase, boolean ordering, boolean pvs,
+                              int quiescence, Workers workers, SearchStats stats)
+    {
+        this.transpositions = transpositions;
+        this.tablebase = tablebase;
+        this.ordering = ordering;
+        this.pvs = pvs;
+        this.quiescence = quiescence;
+        this.workers = workers;
+        this.stats = stats;
+    }
+
+    /**
+     * Searches state to maxDepth. With a time budget the root is searched to
+     * depth 1, 2, 3... up to maxDepth, each iteration trying the previous
+     * iteration's principal variation first, and the best move of the deepest
+     * iteration that finished in time is returned. Without one it is searched
+     * to maxDepth once.
+     *
+     * @param timeBudgetMs The time budget, or 0 for none
+     * @return The best move, or 0 if there is none
+     */
+    int search(GameState state, int maxDepth, long timeBudgetMs)
+    {
+        boolean deepening = timeBudgetMs > 0;
+        return search(state, maxDepth, deepening, deepening ? System.nanoTime() + timeBudgetMs * 1000000L : Long.MAX_VALUE);
+    }
+
+    /**
+     * Searches state to depth 1, 2, 3... up to maxDepth like a search with a
+     * time budget, but without a deadline: it only stops early when another
+     * thread calls requestStop(). Must only be used by a searcher of one thread.
+     *
+     * @return The best move of the deepest iteration that finished, or 0 if there is none
+     */
+    int ponder(GameState state, int maxDepth)
+    {
+        return search(state, maxDepth, true, Long.MAX_VALUE);
+    }
+
+    /**
+     * Makes a running or later ponder() return within about 1024 nodes, until clearStop().
+     */
+    void requestStop()
+    {
+        stopRequested = true;
+    }
+
+    void clearStop()
+    {
+        stopRequested = false;
+    }
+
+    /**
+     * @return The principal variation of the deepest iteration the last search finished
+     */
+    int[] principalVariation()
+    {
+        return Arrays.copyOf(previousPv, previousPvLength);
+    }
+
+    private int search(final GameState state, int maxDepth, final boolean deepening, long deadline)
+    {
+        // A ply is at most two factored moves deep, or the root's whole turn
+        final int depthLimit = Math.min(maxDepth, (MAX_PLY - 2) / (state.isFactored() ? 2 : 1));
+        rootTurnMoves = state.getMovesLeftInTurn();
+        this.deadline = deadline;
+        aborted = false;
+        completedDepth = 0;
+        previousPvLength = 0;
+        if(transpositions != null)
+        {
+            transpositions.newSearch();
+        }
+
+        int bestMove;
+        if(workers == null)
+        {
+            bestMove = iterate(state, depthLimit, deepening);
+        }
+        else
+        {
+            // The whole search runs inside the pool so its split points can fork
+            bestMove = workers.pool.invoke(new RecursiveTask<Integer>() {
+                @Override
+                protected Integer compute() {
+                    return iterate(state, depthLimit, deepening);
+                }
+            });
+        }
+
+        if(bestMove == 0 && state.getMoves(moveBuffers[0], null) > 0)
+        {
+            // Out of time before even depth 1 finished; any legal move beats none
+            bestMove = moveBuffers[0][0];
+        }
+        return bestMove;
+    }
+
+    private int iterate(GameState state, int maxDepth, boolean deepening)
+    {
+        int bestMove = 0;
+        for(int depth = deepening ? 1 : maxDepth; depth <= maxDepth; depth++)
+        {
+            followPv = true;
+            int rootDepth = state.isFactored() ? Math.max(2 * depth, rootTurnMoves) : depth;
+            double value = pvs && completedDepth > 0 ? aspirationSearch(state, rootDepth)
+                    : alphaBeta(state, rootDepth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            if(aborted || pvLength[0] == 0)
+            {
+                break;
+            }
+            bestMove = pv[0][0];
+            rootValue = value;
+            completedDepth = depth;
+            previousPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, previousPv, 0, previousPvLength);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Searches the root within ASPIRATION_WINDOW of the previous iteration's
+     * value. A value on or outside the window is only a bound, so the root is
+     * then searched again with that side of the window open.
+     */
+    private double aspirationSearch(GameState state, int depth)
+    {
+        double alpha = rootValue - ASPIRATION_WINDOW;
+        double beta = rootValue + ASPIRATION_WINDOW;
+        while(true)
+        {
+            double value = alphaBeta(state, depth, 0, alpha, beta);
+            if(aborted || value > alpha && value < beta)
+            {
+                return value;
+            }
+            if(stats != null)
+            {
+                stats.aspirationFails.increment();
+            }
+            if(value <= alpha)
+            {
+                alpha = Double.NEGATIVE_INFINITY;
+            }
+            else
+            {
+                beta = Double.POSITIVE_INFINITY;
+            }
+            followPv = true;
+        }
+    }
+
+    /**
+     * @param depth The remaining depth under this node, in plys of joint moves or unit plies of factored ones
+     * @param ply The distance of this node from the root in moves
+     */
+    private double alphaBeta(GameState state, int depth, int ply, double alpha, double beta)
+    {
+        if(stats != null)
+        {
+            stats.nodes.increment();
+        }
+        pvLength[ply] = 0;
+        if((++clockCheck & 1023) == 0 && (System.nanoTime() > deadline || stopRequested) || scope != null && scope.isStopped())
+        {
+            aborted = true;
+        }
+        if(aborted)
+        {
+            return 0;
+        }
+        if(tablebase != null && ply > 0 && tablebase.matches(state.getMap()))
+        {
+            double decided = decidedValue(state, ply);
+            if(!Double.isNaN(decided))
+            {
+                return decided;
+            }
+        }
+        if(depth <= 0)
+        {
+            return quiescence > 0 ? quiesce(state, ply, Math.min(MAX_PLY - 1, ply + quiescence), alpha, beta)
+                    : evaluate(state, ply);
+        }
+
+        double alphaOrig = alpha;
+        double betaOrig = beta;
+        int ttMove = 0;
+        if(transpositions != null)
+        {
+            if(stats != null)
+            {
+                stats.ttProbes.increment();
+            }
+            if(transpositions.probe(state.getHash(), ttEntry))
+            {
+                if(stats != null)
+                {
+                    stats.ttHits.increment();
+                }
+                ttMove = ttEntry.move;
+                // The root's turn always searches, it has to come back with a move for every unit
+                if(ply >= rootTurnMoves && ttEntry.depth >= depth)
+                {
+                    double stored = fromTable(ttEntry.value, ply);
+                    if(ttEntry.bound == TranspositionTable.EXACT)
+                    {
+                        countTtCutoff();
+                        return stored;
+                    }
+                    if(ttEntry.bound == TranspositionTable.LOWER)
+                    {
+                        alpha = Math.max(alpha, stored);
+                    }
+                    else
+                    {
+                        beta = Math.min(beta, stored);
+                    }
+                    if(alpha >= beta)
+                    {
+                        countTtCutoff();
+                        return stored;
+                    }
+                }
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = generateMoves(state, moves, ordering ? scoreBuffers[ply] : null);
+        if(count == 0)
+        {
+            return evaluate(state, ply);
+        }
+        if(ordering)
+        {
+            orderMoves(moves, scoreBuffers[ply], count, ply);
+        }
+        moveToFront(moves, count, ttMove);
+        if(followPv)
+        {
+            if(ply < previousPvLength)
+            {
+                moveToFront(moves, count, previousPv[ply]);
+            }
+            else
+            {
+                followPv = false;
+            }
+        }
+
+        boolean maximizing = state.isMMTurn();
+        int bestMove = moves[0];
+        SiblingTask[] siblings = null;
+        for(int i = 0; i < count; i++)
+        {
+            double value;
+            int[] childPv;
+            int childPvLength;
+            if(siblings == null)
+            {
+                state.makeMove(moves[i]);
+                value = searchChild(state, childDepth(state, depth, maximizing), ply + 1, alpha, beta, maximizing, i == 0);
+                state.unmakeMove();
+                // Only the first child of a node on the previous principal variation is on it too
+                followPv = false;
+                if(aborted)
+                {
+                    return 0;
+                }
+                childPv = pv[ply + 1];
+                childPvLength = pvLength[ply + 1];
+            }
+            else
+            {
+                SiblingTask sibling = siblings[i];
+                if(!sibling.isInsideWindow(maximizing))
+                {
+                    continue;
+                }
+                value = sibling.value;
+                childPv = sibling.pv;
+                childPvLength = sibling.pv.length;
+            }
+            if(maximizing ? value > alpha : value < beta)
+            {
+                bestMove = moves[i];
+                pv[ply][0] = moves[i];
+                System.arraycopy(childPv, 0, pv[ply], 1, childPvLength);
+                pvLength[ply] = childPvLength + 1;
+            }
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, value);
+            }
+            else
+            {
+                beta = Math.min(beta, value);
+            }
+            if(alpha >= beta)
+            {
+                if(stats != null)
+                {
+                    stats.cutoff(i);
+                }
+                if(ordering && !GameState.isCapture(moves[i]))
+                {
+                    rememberCutoff(moves[i], depth, ply);
+                }
+                break;
+            }
+            if(i == 0 && count > 1 && workers != null && depth >= MIN_SPLIT_DEPTH)
+            {
+                siblings = split(state, moves, count, depth, ply, alpha, beta, maximizing);
+                if(siblings == null)
+                {
+                    return 0;
+                }
+            }
+        }
+
+        double value = maximizing ? alpha : beta;
+        if(transpositions != null)
+        {
+            int bound = value <= alphaOrig ? TranspositionTable.UPPER
+                    : value >= betaOrig ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            transpositions.store(state.getHash(), depth, bound, toTable(value, ply), bestMove);
+        }
+        return value;
+    }
+
+    /**
+     * Searches only the attacks of state, a node at or past the search depth
+     * that alphaBeta has already counted, with the option to stand pat on its
+     * utility instead. Its values are not
+     * stored in the transposition table and its moves are not part of the
+     * principal variation.
+     *
+     * @param lastPly The ply past which the position is evaluated whatever it holds
+     */
+    private double quiesce(GameState state, int ply, int lastPly, double alpha, double beta)
+    {
+        pvLength[ply] = 0;
+        if((++clockCheck & 1023) == 0 && (System.nanoTime() > deadline || stopRequested) || scope != null && scope.isStopped())
+        {
+            aborted = true;
+        }
+        if(aborted)
+        {
+            return 0;
+        }
+
+        boolean maximizing = state.isMMTurn();
+        double standPat = evaluate(state, ply);
+        if(ply >= lastPly)
+        {
+            return standPat;
+        }
+        // A side that has started attacking with factored moves finishes its turn, the other side then replies
+        if(!state.isMidTurn())
+        {
+            if(maximizing ? standPat >= beta : standPat <= alpha)
+            {
+                return standPat;
+            }
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, standPat);
+            }
+            else
+            {
+                beta = Math.min(beta, standPat);
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int[] scores = scoreBuffers[ply];
+        int count = state.getCaptures(moves, scores);
+        if(count == 0)
+        {
+            return state.isMidTurn() ? standPat : maximizing ? alpha : beta;
+        }
+        // Insertion sort by scoreAction: killing blows first, the lists are a few moves long
+        for(int i = 1; i < count; i++)
+        {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while(j >= 0 && scores[j] < score)
+            {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            if(stats != null)
+            {
+                stats.nodes.increment();
+                stats.quiescenceNodes.increment();
+            }
+            state.makeMove(moves[i]);
+            double value = tablebase != null && tablebase.matches(state.getMap()) ? decidedValue(state, ply + 1) : Double.NaN;
+            if(Double.isNaN(value))
+            {
+                value = quiesce(state, ply + 1, lastPly, alpha, beta);
+            }
+            state.unmakeMove();
+            if(aborted)
+            {
+                return 0;
+            }
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, value);
+            }
+            else
+            {
+                beta = Math.min(beta, value);
+            }
+            if(alpha >= beta)
+            {
+                break;
+            }
+        }
+        return maximizing ? alpha : beta;
+    }
+
+    /**
+     * @param state The position after a move of the parent node
+     * @param maximizing Whether the parent node is the maximizing one
+     * @return The depth of the child: one less, or two less after a factored
+     * turn of a single unit, which uses up a ply like a turn of two
+     */
+    private static int childDepth(GameState state, int depth, boolean maximizing)
+    {
+        boolean loneTurn = state.isFactored() && state.isMMTurn() != maximizing && state.getTurnMoves(maximizing) == 1;
+        return loneTurn ? depth - 2 : depth - 1;
+    }
+
+    /**
+     * Searches the child the parent node has just moved state to. With PVS a
+     * child other than the first is searched with a null window first and
+     * only searched again with the full window if it beats the parent's best
+     * value. Utilities are integers, so a window one wide holds no value and
+     * the null window search can only fail high or low.
+     *
+     * @param maximizing Whether the parent node is the maximizing one
+     * @param first Whether this is the parent's first child
+     */
+    private double searchChild(GameState state, int depth, int ply, double alpha, double beta,
+                               boolean maximizing, boolean first)
+    {
+        double bound = maximizing ? alpha : beta;
+        if(!pvs || first || beta - alpha <= 1 || Double.isInfinite(bound))
+        {
+            return alphaBeta(state, depth, ply, alpha, beta);
+        }
+        double value = maximizing ? alphaBeta(state, depth, ply, alpha, alpha + 1)
+                : alphaBeta(state, depth, ply, beta - 1, beta);
+        if(aborted || (maximizing ? value <= alpha : value >= beta))
+        {
+            return value;
+        }
+        if(stats != null)
+        {
+            stats.researches.increment();
+        }
+        return alphaBeta(state, depth, ply, alpha, beta);
+    }
+
+    /**
+     * Searches moves 1 to count - 1 of the node in parallel and waits for them.
+     * Must be called from a thread of the pool.
+     *
+     * @return The tasks by move index, or null if the search was aborted meanwhile
+     */
+    private SiblingTask[] split(GameState state, int[] moves, int count, int depth, int ply,
+                                double alpha, double beta, boolean maximizing)
+    {
+        SplitPoint split = new SplitPoint(scope, alpha, beta, maximizing);
+        // getMoves changes the state it runs on for a moment, so the tasks copy a private snapshot
+        GameState position = state.copy();
+        SiblingTask[] siblings = new SiblingTask[count];
+        List<SiblingTask> tasks = new ArrayList<SiblingTask>(count - 1);
+        for(int i = 1; i < count; i++)
+        {
+            siblings[i] = new SiblingTask(workers, split, position, moves[i], depth, rootTurnMoves, ply + 1, deadline);
+            tasks.add(siblings[i]);
+        }
+        ForkJoinTask.invokeAll(tasks);
+        if(split.timedOut || scope != null && scope.isStopped())
+        {
+            aborted = true;
+            return null;
+        }
+        return siblings;
+    }
+
+    /**
+     * Moves the given move to the front of the list, keeping the order of the others.
+     */
+    private static void moveToFront(int[] moves, int count, int move)
+    {
+        if(move == 0)
+        {
+            return;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            if(moves[i] == move)
+            {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sorts the moves of the node at ply best first. Attacks come first, ranked
+     * by scoreAction. The other moves are ranked by the killer moves of the ply,
+     * then by the history score of their unit actions plus the distance they close.
+     */
+    private void orderMoves(int[] moves, int[] scores, int count, int ply)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            int move = moves[i];
+            if(GameState.isCapture(move))
+            {
+                continue;
+            }
+            int score = scores[i] * CLOSING_WEIGHT + history[historyIndex(GameState.firstAction(move))];
+            if(GameState.isPresent(GameState.secondAction(move)))
+            {
+                score += history[historyIndex(GameState.secondAction(move))];
+            }
+            if(move == killers[ply][0])
+            {
+                score += KILLER_SCORE + 1;
+            }
+            else if(move == killers[ply][1])
+            {
+                score += KILLER_SCORE;
+            }
+            scores[i] = score;
+        }
+
+        // Insertion sort: the lists are short and it keeps equal moves in generation order
+        for(int i = 1; i < count; i++)
+        {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while(j >= 0 && scores[j] < score)
+            {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Records a quiet move that caused a beta cutoff as a killer of its ply and
+     * credits its unit actions in the history table, deeper cutoffs counting more.
+     */
+    private void rememberCutoff(int move, int depth, int ply)
+    {
+        if(killers[ply][0] != move)
+        {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        addHistory(GameState.firstAction(move), depth * depth);
+        if(GameState.isPresent(GameState.secondAction(move)))
+        {
+            addHistory(GameState.secondAction(move), depth * depth);
+        }
+    }
+
+    private void addHistory(int action, int bonus)
+    {
+        int index = historyIndex(action);
+        history[index] += bonus;
+        if(history[index] >= HISTORY_LIMIT)
+        {
+            for(int i = 0; i < history.length; i++)
+            {
+                history[i] /= 2;
+            }
+        }
+    }
+
+    /** The unit action without its presence bit: unit, direction or target, attack flag */
+    private static int historyIndex(int action)
+    {
+        return action & ((1 << (GameState.ACTION_BITS - 1)) - 1);
+    }
+
+    private double evaluate(GameState state, int ply)
+    {
+        if(stats == null)
+        {
+            return state.getUtility();
+        }
+        double value;
+        if(stats.timed)
+        {
+            long start = System.nanoTime();
+            value = state.getUtility();
+            stats.evaluationNanos.add(System.nanoTime() - start);
+        }
+        else
+        {
+            value = state.getUtility();
+        }
+        stats.leaves.increment();
+        stats.maxPly.accumulate(ply);
+        return value;
+    }
+
+    /**
+     * @param ply The distance of state from the root in moves
+     * @return The value of state if the game is decided there, either over or
+     * a footman win in the tablebase, otherwise NaN
+     */
+    private double decidedValue(GameState state, int ply)
+    {
+        if(state.isTerminal())
+        {
+            for(int unit = 0; unit < state.getNumMMUnits(); unit++)
+            {
+                if(state.isAlive(unit))
+                {
+                    return Tablebase.WIN_VALUE - ply;
+                }
+            }
+            return -(Tablebase.WIN_VALUE - ply);
+        }
+        int moves = tablebase.probe(state);
+        if(moves == 0)
+        {
+            return Double.NaN;
+        }
+        if(stats != null)
+        {
+            stats.tablebaseHits.increment();
+        }
+        return Tablebase.WIN_VALUE - (ply + moves);
+    }
+
+    /**
+     * @return A value of a node at ply as the transposition table keeps it:
+     * decided game scores counted from the node rather than from the root
+     */
+    private static double toTable(double value, int ply)
+    {
+        return value > WIN_BOUND ? value + ply : value < -WIN_BOUND ? value - ply : value;
+    }
+
+    /**
+     * @return A value from the transposition table as a node at ply scores it, see toTable
+     */
+    private static double fromTable(double value, int ply)
+    {
+        return value > WIN_BOUND ? value - ply : value < -WIN_BOUND ? value + ply : value;
+    }
+
+    private int generateMoves(GameState state, int[] moves, int[] scores)
+    {
+        if(stats == null || !stats.timed)
+        {
+            return state.getMoves(moves, scores);
+        }
+        long start = System.nanoTime();
+        int count = state.getMoves(moves, scores);
+        stats.moveGenerationNanos.add(System.nanoTime() - start);
+        return count;
+    }
+
+    private void countTtCutoff()
+    {
+        if(stats != null)
+        {
+            stats.ttCutoffs.increment();
+        }
+    }
+
+    /**
+     * The pool of a parallel search and the searchers its tasks borrow. A task
+     * cannot use the searcher of the thread it runs on: a thread waiting on a
+     * split point runs other tasks meanwhile, and those would overwrite the
+     * ply buffers of the search it is in the middle of.
+     */
+    private static final class Workers {
+        final ForkJoinPool pool;
+        private final ConcurrentLinkedQueue<AlphaBetaSearcher> idle = new ConcurrentLinkedQueue<AlphaBetaSearcher>();
+        private final TranspositionTable transpositions;
+        private final Tablebase tablebase;
+        private final boolean ordering;
+        private final boolean pvs;
+        private final int quiescence;
+        private final SearchStats stats;
+
+        Workers(int threads, TranspositionTable transpositions, Tablebase tablebase, boolean ordering, boolean pvs,
+                int quiescence, SearchStats stats)
+        {
+            pool = new ForkJoinPool(threads);
+            this.transpositions = transpositions;
+            this.tablebase = tablebase;
+            this.ordering = ordering;
+            this.pvs = pvs;
+            this.quiescence = quiescence;
+            this.stats = stats;
+        }
+
+        AlphaBetaSearcher acquire()
+        {
+            AlphaBetaSearcher searcher = idle.poll();
+            if(searcher == null)
+            {
+                searcher = new AlphaBetaSearcher(transpositions, tablebase, ordering, pvs, quiescence, this, stats);
+            }
+            return searcher;
+        }
+
+        void release(AlphaBetaSearcher searcher)
+        {
+            idle.add(searcher);
+        }
+    }
+
+    /**
+     * The window shared by the children of a node searched in parallel. It is
+     * stopped when one of them causes a cutoff, when the search runs out of
+     * time, or when a split point above it is stopped.
+     */
+    private static final class SplitPoint {
+        private final SplitPoint parent;
+        private final boolean maximizing;
+        private double alpha;
+        private double beta;
+        private volatile boolean stopped;
+        volatile boolean timedOut;
+
+        SplitPoint(SplitPoint parent, double alpha, double beta, boolean maximizing)
+        {
+            this.parent = parent;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.maximizing = maximizing;
+        }
+
+        synchronized double alpha()
+        {
+            return alpha;
+        }
+
+        synchronized double beta()
+        {
+            return beta;
+        }
+
+        synchronized void update(double value)
+        {
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, value);
+            }
+            else
+            {
+                beta = Math.min(beta, value);
+            }
+            if(alpha >= beta)
+            {
+                stopped = true;
+            }
+        }
+
+        void timeOut()
+        {
+            timedOut = true;
+            stopped = true;
+        }
+
+        boolean isStopped()
+        {
+            for(SplitPoint split = this; split != null; split = split.parent)
+            {
+                if(split.stopped)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Searches one younger brother of a split node on its own copy of the position.
+     */
+    private static final class SiblingTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Workers workers;
+        private final SplitPoint split;
+        private final GameState position;
+        private final int move;
+        /* Depth of the split node, the child's depth depends on the turn move ends */
+        private final int depth;
+        private final int rootTurnMoves;
+        private final int ply;
+        private final long deadline;
+
+        /* The result, set only when the search finished */
+        private boolean finished;
+        private double alpha;
+        private double beta;
+        double value;
+        int[] pv;
+
+        SiblingTask(Workers workers, SplitPoint split, GameState position, int move, int depth, int rootTurnMoves,
+                    int ply, long deadline)
+        {
+            this.workers = workers;
+            this.split = split;
+            this.position = position;
+            this.move = move;
+            this.depth = depth;
+            this.rootTurnMoves = rootTurnMoves;
+            this.ply = ply;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return Whether the search finished with a value inside the window it
+         * started with. Outside it the value is only a bound, and a bound from
+         * the window another brother set must not make this move the best.
+         */
+        boolean isInsideWindow(boolean maximizing)
+        {
+            return finished && (maximizing ? value > alpha : value < beta);
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(split.isStopped())
+            {
+                return;
+            }
+            AlphaBetaSearcher searcher = workers.acquire();
+            try
+            {
+                double a = split.alpha();
+                double b = split.beta();
+                GameState state = position.copy();
+                state.makeMove(move);
+                searcher.scope = split;
+                searcher.deadline = deadline;
+                searcher.rootTurnMoves = rootTurnMoves;
+                searcher.aborted = false;
+                searcher.followPv = false;
+                searcher.previousPvLength = 0;
+                // A younger brother, so with PVS it gets a null window first
+                double result = searcher.searchChild(state, childDepth(state, depth, split.maximizing), ply, a, b,
+                        split.maximizing, false);
+                if(searcher.aborted)
+                {
+                    if(!split.isStopped())
+                    {
+                        split.timeOut();
+                    }
+                    return;
+                }
+                alpha = a;
+                beta = b;
+                value = result;
+                pv = Arrays.copyOf(searcher.pv[ply], searcher.pvLength[ply]);
+                finished = true;
+                split.update(result);
+            }
+            finally
+            {
+                searcher.scope = null;
+                workers.release(searcher);
+            }
+        }
+    }
+}
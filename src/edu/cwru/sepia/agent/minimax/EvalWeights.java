@@ -0,0 +1,107 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * The weights of the features GameState.getUtility() adds up, by name:
+ * - hp: per HP point of a living unit, for its side;
+ * - distance: per move a footman needs to reach an archer, against the footmen;
+ * - attack: per archer a footman is next to and could attack;
+ * - archer-mobility: per step an archer could take onto an open cell, against the footmen;
+ * - obstacle-adjacency: per blocked or off-map cell around a footman, against the footmen.
+ * The defaults are the hand-set weights the utility was written with; the
+ * last two features are off. Tuned weights are only used when given as a
+ * file, never as the defaults.
+ *
+ * A weights file holds one name=value line per feature, in any order, and #
+ * comments. Features it leaves out keep their default. WeightTuner writes
+ * them, and the agent reads one with weights=FILE.
+ */
+final class EvalWeights {
+
+    static final int HP = 0;
+    static final int DISTANCE = 1;
+    static final int ATTACK = 2;
+    static final int ARCHER_MOBILITY = 3;
+    static final int OBSTACLE_ADJACENCY = 4;
+    static final String[] NAMES = { "hp", "distance", "attack", "archer-mobility", "obstacle-adjacency" };
+
+    static final EvalWeights DEFAULT = new EvalWeights(new int[] { 1, 1, 4, 0, 0 });
+
+    private final int[] weights;
+
+    EvalWeights(int[] weights) {
+        if (weights.length != NAMES.length) {
+            throw new IllegalArgumentException("Expected " + NAMES.length + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    int get(int feature) {
+        return weights[feature];
+    }
+
+    int[] toArray() {
+        return weights.clone();
+    }
+
+    static EvalWeights read(String file) throws IOException {
+        int[] weights = DEFAULT.toArray();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                line = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int split = line.indexOf('=');
+                int feature = split < 0 ? -1 : Arrays.asList(NAMES).indexOf(line.substring(0, split).trim());
+                if (feature < 0) {
+                    throw new IOException("Expected feature=weight with a feature of " + Arrays.toString(NAMES)
+                            + ", got " + line);
+                }
+                try {
+                    weights[feature] = Integer.parseInt(line.substring(split + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Not a whole number weight: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new EvalWeights(weights);
+    }
+
+    /**
+     * @param comment A line written at the top of the file, or null for none
+     */
+    void write(String file, String comment) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            if (comment != null) {
+                writer.write("# " + comment + "\n");
+            }
+            for (int feature = 0; feature < NAMES.length; feature++) {
+                writer.write(NAMES[feature] + "=" + weights[feature] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int feature = 0; feature < NAMES.length; feature++) {
+            text.append(feature == 0 ? "" : " ").append(NAMES[feature]).append('=').append(weights[feature]);
+        }
+        return text.toString();
+    }
+}
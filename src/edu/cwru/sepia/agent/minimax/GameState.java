@@ -1,14 +1,7 @@
 package edu.cwru.sepia.agent.minimax;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.ActionType;
-import edu.cwru.sepia.action.DirectedAction;
-import edu.cwru.sepia.action.LocatedAction;
-import edu.cwru.sepia.action.TargetedAction;
-import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
 import edu.cwru.sepia.environment.model.state.State;
-import edu.cwru.sepia.environment.model.state.Template.TemplateView;
-import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 import edu.cwru.sepia.environment.model.state.UnitTemplate.UnitTemplateView;
 import edu.cwru.sepia.util.Direction;
@@ -22,131 +15,93 @@ import java.util.*;
  *
  * Add any information or methods you would like to this class,
  * but do not delete or change the signatures of the provided methods.
+ *
+ * Units are kept in a single packed int[] rather than as objects: every unit
+ * is a fixed-size record of UNIT_FIELDS ints (see the field offsets below),
+ * footmen first and archers after them. A child state is produced by cloning
+ * that one small array and patching the record of the unit that moved or was
+ * hit, so a node costs one array copy instead of two lists of UnitInfo.
  */
 public class GameState {
 
-	private int xExtent;
-	private int yExtent;
-	private List<UnitInfo> mmUnits;
-	private List<UnitInfo> archers;
-	private Set<ResourceInfo> resources;
+	/** Offsets of the fields of one unit record inside {@link #units}. */
+	static final int ID = 0;
+	static final int X = 1;
+	static final int Y = 2;
+	static final int HP = 3;
+	static final int RANGE = 4;
+	static final int ATTK = 5;
+	static final int BASE_HP = 6;
+	static final int UNIT_FIELDS = 7;
+
+	private final int xExtent;
+	private final int yExtent;
+	/* Resources and distances around them, shared by every state of the map */
+	private final MapLayer map;
+	private final int[] units;
+	private final int numMMUnits;
+	private final Zobrist zobrist;
+	/* Symmetries getMoves() drops duplicate children by, null if there are none or it does not */
+	private final Symmetry symmetry;
+	/* Whether a move is one unit's action rather than the side's whole turn, see getMoves */
+	private final boolean factored;
+	/* With factored moves, how many units of the side to move have acted this turn */
+	private int acted;
 	private int turnNumber;
-	private Map<Integer, Action> lastActions;
-	
-	private class ResourceInfo{
-		public final int x;
-		public final int y;
-		
-		public ResourceInfo(int x, int y){
-			this.x = x;
-			this.y = y;
-		}
-		
-		@Override
-		public int hashCode(){
-			return Integer.valueOf(x).hashCode() + Integer.valueOf(y).hashCode()*37;
-		}
-		@Override
-		public boolean equals(Object o){
-			if(o instanceof ResourceInfo){
-				ResourceInfo ri = (ResourceInfo) o;
-				return ri.x == x && ri.y == y;
-			}
-			return false;
-		}
-	}
-	
-	private class UnitInfo{
-		public final int id;
-		public final int x;
-		public final int y;
-		public final int range;
-		public final int attk;
-		public final int curHealth;
-		public final int baseHealth;
-		public final boolean isMMUnit;
-		
-		public UnitInfo(int id, int x, int y, int range, int attk, int curHealth, int baseHealth, boolean isMMUnit){
-			this.id = id;
-			this.x = x;
-			this.y = y;
-			this.range = range;
-			this.attk = attk;
-			this.curHealth = curHealth;
-			this.baseHealth = baseHealth;
-			this.isMMUnit = isMMUnit;
-		}
-		
-		public boolean isAt(int x, int y){
-			return this.x == x && this.y == y;
-		}
+	private long hash;
+	/* Current getUtility() value, updated with every action rather than recomputed */
+	private int utility;
+	/* Whether utility has yet to be computed: a child built by buildChild only computes it when asked */
+	private boolean utilityStale;
+	/* Feature weights of getUtility() */
+	private final EvalWeights weights;
+	/* Worth of a living unit, more than all the other terms it can take part in */
+	private final int unitWeight;
+	/* Move ordering score of the move that produced this state, see scoreAction */
+	private int orderingScore;
 
-		@Override
-		public int hashCode(){
-			return Integer.valueOf(id).hashCode();
-		}
-		@Override
-		public boolean equals(Object o){
-			if(o instanceof UnitInfo){
-				UnitInfo u = (UnitInfo) o;
-				return u.id == this.id;
-			}
-			return false;
-		}
-		
-		
-		public int distanceTo(UnitInfo unit){
-			return Math.min(Math.abs(unit.x - this.x), Math.abs(unit.y - this.y));
-		}
-		
-	}
-	
-
-	public UnitInfo getUnitAt(List<UnitInfo> units, int x, int y) {
-		Iterator<UnitInfo> it = units.iterator();
-		UnitInfo cur;
-		while(it.hasNext()){
-			cur = it.next();
-			if(cur.isAt(x, y)){
-				return cur;
-			}
-		}
-		return null;
-	}
-	
-	private List<UnitInfo> extractUnitInfo(List<UnitView> units, boolean isMMUnits){
-		List<UnitInfo> ret = new LinkedList<UnitInfo>();
-		Iterator<UnitView> it = units.iterator();
-		UnitView cur;
-		UnitTemplateView curTemp;
-		while(it.hasNext()){
-			cur = it.next();
-			curTemp = cur.getTemplateView();
-			ret.add(
-					new UnitInfo(
-							cur.getID(),
-							cur.getXPosition(), 
-							cur.getYPosition(), 
-							curTemp.getRange(), 
-							curTemp.getBasicAttack(), 
-							cur.getHP(),
-							curTemp.getBaseHealth(),
-							isMMUnits
-							)
-					);
-		}
-		return ret;
-	}
-	
-	private Set<ResourceInfo> extractResourceInfo(State.StateView state){
-		Set<ResourceInfo> ret = new HashSet<ResourceInfo>();
-		Iterator<Integer> it = state.getAllResourceIds().iterator();
-		ResourceView cur;
-		while(it.hasNext()){
-			cur = state.getResourceNode(it.next());
-			ret.add( new ResourceInfo(cur.getXPosition(), cur.getYPosition()));
+	/*
+	 * One unit's action is packed into ACTION_BITS bits: the unit index in the
+	 * low six bits, the direction ordinal (move) or target unit index (attack)
+	 * in the next six, then an attack flag and a presence bit. A move for the
+	 * whole side to move holds the actions of its two units in one int.
+	 */
+	static final int ACTION_BITS = 14;
+	private static final int ACTION_MASK = (1 << ACTION_BITS) - 1;
+	private static final int ATTACK_FLAG = 1 << 12;
+	private static final int PRESENT_FLAG = 1 << 13;
+	/* The factored move of a unit that has no action and only waits for the next */
+	static final int PASS = 1 << (2 * ACTION_BITS);
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	/* Undo log for makeMove: (array index, old value) pairs, each move closed by the log size and acted count before it. */
+	private int[] undo;
+	private int undoTop;
+	private int[] unit1Actions;
+	private int[] unit2Actions;
+	private int[] unit1Scores;
+	/* Canonical forms of the children getMoves() has kept so far, and an open-addressed table of their
+	   indices plus one by hash, 0 for an empty slot */
+	private long[][] childForms;
+	private int[] childSlots;
+	/* Hashes and utilities from before each move played with makeMove */
+	private long[] hashHistory;
+	private int[] utilityHistory;
+	private int hashTop;
+
+	private static int packUnits(List<UnitView> units, int[] into, int offset){
+		for(UnitView cur : units){
+			UnitTemplateView curTemp = cur.getTemplateView();
+			into[offset + ID] = cur.getID();
+			into[offset + X] = cur.getXPosition();
+			into[offset + Y] = cur.getYPosition();
+			into[offset + HP] = cur.getHP();
+			into[offset + RANGE] = curTemp.getRange();
+			into[offset + ATTK] = curTemp.getBasicAttack();
+			into[offset + BASE_HP] = curTemp.getBaseHealth();
+			offset += UNIT_FIELDS;
 		}
-		return ret;
+		return offset;
 	}
 
     /**
@@ -168,27 +123,84 @@ public class GameState {
      * unitView.getTemplateView().getBasicAttack(): The amount of damage this unit deals
      * unitView.getTemplateView().getBaseHealth(): The maximum amount of health of this unit
      *
+     * Symmetry reduction is on: getChildren() and getMoves() leave out the
+     * children that are symmetric images of an earlier sibling (see Symmetry).
+     *
      * @param state Current state of the episode
      */
     public GameState(State.StateView state) {
+    	this(state, true, false);
+    }
+
+    /**
+     * @param reduceSymmetry Whether getMoves() drops moves leading to a
+     * symmetric image of an earlier child (see Symmetry)
+     * @param factored Whether getMoves() writes one unit's actions at a time
+     * instead of the side's joint moves
+     */
+    GameState(State.StateView state, boolean reduceSymmetry, boolean factored) {
+    	this(state, reduceSymmetry, factored, EvalWeights.DEFAULT);
+    }
+
+    /**
+     * @param weights The feature weights of getUtility()
+     */
+    GameState(State.StateView state, boolean reduceSymmetry, boolean factored, EvalWeights weights) {
+    	this.factored = factored;
+    	this.weights = weights;
     	xExtent = state.getXExtent();
     	yExtent = state.getYExtent();
-    	mmUnits = extractUnitInfo(state.getUnits(0), true);
-    	archers = extractUnitInfo(state.getUnits(1), false);
-    	resources = extractResourceInfo(state);
+    	List<UnitView> mm = state.getUnits(0);
+    	List<UnitView> arch = state.getUnits(1);
+    	units = new int[(mm.size() + arch.size()) * UNIT_FIELDS];
+    	numMMUnits = mm.size();
+    	packUnits(arch, units, packUnits(mm, units, 0));
+    	map = MapLayer.of(state);
     	turnNumber = state.getTurnNumber();
-    	lastActions = new HashMap<Integer, Action>();
-    }
-    
-    public GameState(int xExtent, int yExtent, List<UnitInfo> mmUnits, List<UnitInfo> archers, Set<ResourceInfo> resources, int turnNumber,
-    						Map<Integer, Action> prev){
-    	this.xExtent = xExtent;
-    	this.yExtent = yExtent;
-    	this.mmUnits = mmUnits;
-    	this.archers = archers;
-    	this.resources = resources;
+    	zobrist = new Zobrist(units, xExtent, yExtent);
+    	symmetry = reduceSymmetry ? Symmetry.of(map, units) : null;
+    	hash = computeHash();
+    	// A unit's own map feature counts at most 8 cells, each pair term at most the unreachable distance and an attack
+    	unitWeight = Math.max(numMMUnits, getNumUnits() - numMMUnits)
+    			* (Math.abs(weights.get(EvalWeights.DISTANCE)) * map.getUnreachable() + Math.abs(weights.get(EvalWeights.ATTACK)))
+    			+ 8 * Math.max(Math.abs(weights.get(EvalWeights.ARCHER_MOBILITY)), Math.abs(weights.get(EvalWeights.OBSTACLE_ADJACENCY))) + 1;
+    	utility = computeUtility();
+    }
+
+    private GameState(GameState parent, int[] units, int turnNumber, long hash, int utility){
+    	this.xExtent = parent.xExtent;
+    	this.yExtent = parent.yExtent;
+    	this.map = parent.map;
+    	this.numMMUnits = parent.numMMUnits;
+    	this.zobrist = parent.zobrist;
+    	this.symmetry = parent.symmetry;
+    	this.factored = parent.factored;
+    	this.weights = parent.weights;
+    	this.unitWeight = parent.unitWeight;
+    	this.units = units;
+    	this.acted = parent.acted;
     	this.turnNumber = turnNumber;
-    	this.lastActions = prev;
+    	this.hash = hash;
+    	this.utility = utility;
+    }
+
+    /**
+     * @return The Zobrist hash of the unit positions, HPs and side to move
+     */
+    long getHash(){
+    	return hash;
+    }
+
+    /**
+     * Hashes the state from scratch. getHash() is kept up to date incrementally
+     * and must always equal this.
+     */
+    long computeHash(){
+    	long h = (isMMTurn() ? 0 : Zobrist.SIDE_KEY) ^ Zobrist.actedKey(acted);
+    	for(int unit = 0; unit < getNumUnits(); unit++){
+    		h ^= zobrist.positionKey(unit, get(unit, X), get(unit, Y)) ^ zobrist.healthKey(unit, get(unit, HP));
+    	}
+    	return h;
     }
 
     /**
@@ -207,130 +219,408 @@ public class GameState {
      *
      * Add a good comment about what is in your utility and why you chose those features.
      *
+     * The utility is a sum of terms for single units and for footman-archer
+     * pairs, positive for the footmen, each feature scaled by its weight in
+     * EvalWeights:
+     * - every living unit is worth unitWeight plus its HP, counted for its
+     *   side, so damage and above all kills are what the footmen play for;
+     * - every living footman-archer pair costs the number of moves the footman
+     *   needs to reach the archer around the resources (see MapLayer), so the
+     *   footmen are rewarded for closing in along paths that actually lead there;
+     * - every archer a footman could attack next turn adds the attack weight;
+     * - every living archer counts the steps it has onto open cells for the
+     *   archers, so a cornered archer is worth less to them;
+     * - every living footman counts the blocked cells around it against the
+     *   footmen, who are slower to get anywhere from among the resources.
+     * unitWeight outweighs every other term a unit is part of, so a unit dying
+     * never looks good to its own side just because its terms drop out.
+     *
+     * Only the terms of the unit a unit action changes (the mover or the
+     * target) can change, so each action updates the value by that unit's
+     * difference (see play) and this is a field read. A child state from
+     * getChildren() or childIterator() instead computes it on the first call:
+     * most of them are never evaluated, and one evaluation costs about what
+     * the incremental updates would.
+     *
      * @return The weighted linear combination of the features
      */
     public double getUtility() {
-    	double ret = 0;
-    	        for(UnitInfo mmInfo: mmUnits){
-    	        	for(UnitInfo archInfo : archers){
-    	        		ret -= Math.abs(mmInfo.x - archInfo.x) + Math.abs(mmInfo.y - archInfo.y);
-    	        	}
-    	        }
-    	        return ret;
-    }
-    
-    private UnitInfo getClosestEnemy(UnitInfo unit) {
-		if(unit.isMMUnit){
-			UnitInfo closestArcher = null;
-			int minDist = Integer.MAX_VALUE;
-			for(UnitInfo arch : archers){
-				if(arch.distanceTo(unit) < minDist){
-					minDist = arch.distanceTo(unit);
-					closestArcher = arch;
-				}
-			}
-			return closestArcher;
-		}else{
-			return null;
-		}
-	}
+    	return currentUtility();
+    }
+
+    private int currentUtility(){
+    	if(utilityStale){
+    		utility = computeUtility();
+    		utilityStale = false;
+    	}
+    	return utility;
+    }
+
+    /**
+     * Computes getUtility() from scratch. getUtility() is kept up to date
+     * incrementally and must always equal this.
+     */
+    int computeUtility(){
+    	int sum = 0;
+    	for(int unit = 0; unit < getNumUnits(); unit++){
+    		sum += unitTerm(unit);
+    	}
+    	for(int mm = 0; mm < numMMUnits; mm++){
+    		for(int arch = numMMUnits; arch < getNumUnits(); arch++){
+    			sum += pairTerm(mm, arch);
+    		}
+    	}
+    	return sum;
+    }
+
+    /**
+     * @return The utility terms a unit takes part in: its own and those of its pairs
+     */
+    private int unitTerms(int unit){
+    	int sum = unitTerm(unit);
+    	if(isMMUnit(unit)){
+    		for(int arch = numMMUnits; arch < getNumUnits(); arch++){
+    			sum += pairTerm(unit, arch);
+    		}
+    	}else{
+    		for(int mm = 0; mm < numMMUnits; mm++){
+    			sum += pairTerm(mm, unit);
+    		}
+    	}
+    	return sum;
+    }
+
+    private int unitTerm(int unit){
+    	if(!isAlive(unit)){
+    		return 0;
+    	}
+    	int value = unitWeight + weights.get(EvalWeights.HP) * get(unit, HP);
+    	if(isMMUnit(unit)){
+    		return value - weights.get(EvalWeights.OBSTACLE_ADJACENCY) * map.blockedNeighbours(get(unit, X), get(unit, Y));
+    	}
+    	return -value - weights.get(EvalWeights.ARCHER_MOBILITY) * map.openSteps(get(unit, X), get(unit, Y));
+    }
+
+    private int pairTerm(int mm, int arch){
+    	if(!isAlive(mm) || !isAlive(arch)){
+    		return 0;
+    	}
+    	int distance = map.distance(get(mm, X), get(mm, Y), get(arch, X), get(arch, Y));
+    	// The footman attacks by moving onto the archer, so one move away it can attack
+    	int value = -weights.get(EvalWeights.DISTANCE) * distance;
+    	return distance == 1 ? value + weights.get(EvalWeights.ATTACK) : value;
+    }
+
+    /**
+     * Applies one unit action to this state, updating the hash and utility.
+     */
+    private void play(int action, boolean log){
+    	if(utilityStale){
+    		hash ^= applyAction(units, action, log);
+    		return;
+    	}
+    	int changed = isAttack(action) ? actionArg(action) : actingUnit(action);
+    	int before = unitTerms(changed);
+    	hash ^= applyAction(units, action, log);
+    	utility += unitTerms(changed) - before;
+    }
 
 	public boolean isMMTurn(){
     	return this.turnNumber % 2 == 0;
     }
-  
-    
-    private List<GameStateChild> getUnitMoves(UnitInfo unit, GameState gameState, Map<Integer, Action> actions, int maxMapIndex, Map<Integer, Action> lastActions){
-    	List<GameStateChild> children = new ArrayList<GameStateChild>();
-    	if(unit.curHealth == 0){
-    		return children;
-    	}
-    	List<UnitInfo> enemies = isMMTurn() ? gameState.archers : gameState.mmUnits;
-    	List<UnitInfo> myUnits = isMMTurn() ? gameState.mmUnits : gameState.archers;
-    	
-    	for(Direction direction: Direction.values()){
-    		int x = unit.x + direction.xComponent();
-    		int y = unit.y + direction.yComponent();
+
+    MapLayer getMap(){
+    	return map;
+    }
+
+    /**
+     * @return Whether some units of the side to move have acted this turn
+     * with factored moves, and the others are still to act
+     */
+    boolean isMidTurn(){
+    	return acted > 0;
+    }
+
+    int getTurnNumber(){
+    	return turnNumber;
+    }
+
+    /**
+     * @return Whether a move is one unit's action rather than the side's whole turn, see getMoves
+     */
+    boolean isFactored(){
+    	return factored;
+    }
+
+    /**
+     * @param mm Whether the turn is the footmen's rather than the archers'
+     * @return The number of moves a turn of the side takes: one joint move,
+     * or one factored move per living unit
+     */
+    int getTurnMoves(boolean mm){
+    	if(!factored){
+    		return 1;
+    	}
+    	int moves = 0;
+    	for(int unit = mm ? 0 : numMMUnits; unit < (mm ? numMMUnits : getNumUnits()); unit++){
+    		if(isAlive(unit)){
+    			moves++;
+    		}
+    	}
+    	return moves;
+    }
+
+    /**
+     * @return The number of moves left in the turn of the side to move, this one included
+     */
+    int getMovesLeftInTurn(){
+    	return getTurnMoves(isMMTurn()) - acted;
+    }
+
+    int getNumUnits(){
+    	return units.length / UNIT_FIELDS;
+    }
+
+    int getNumMMUnits(){
+    	return numMMUnits;
+    }
+
+    int get(int unit, int field){
+    	return units[unit * UNIT_FIELDS + field];
+    }
+
+    boolean isAlive(int unit){
+    	return units[unit * UNIT_FIELDS + HP] > 0;
+    }
+
+    boolean isMMUnit(int unit){
+    	return unit < numMMUnits;
+    }
+
+    /**
+     * @return The index of the living unit at (x, y) among indices [from, to), or -1
+     */
+    private int getUnitAt(int from, int to, int x, int y){
+    	for(int unit = from; unit < to; unit++){
+    		int base = unit * UNIT_FIELDS;
+    		if(units[base + X] == x && units[base + Y] == y && units[base + HP] > 0){
+    			return unit;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Index of the n-th living unit of the side to move, or -1 if there is none.
+     */
+    private int getMover(int n){
+    	int from = isMMTurn() ? 0 : numMMUnits;
+    	int to = isMMTurn() ? numMMUnits : getNumUnits();
+    	for(int unit = from; unit < to; unit++){
+    		if(isAlive(unit) && n-- == 0){
+    			return unit;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Appends the encoded actions available to a unit in this state to actions.
+     * Moving onto an enemy attacks it; obstacles and friendly units block.
+     *
+     * @return The new number of actions in the array
+     */
+    private int getUnitActions(int unit, int[] actions, int count){
+    	boolean mmUnit = isMMUnit(unit);
+    	int enemyFrom = mmUnit ? numMMUnits : 0;
+    	int enemyTo = mmUnit ? getNumUnits() : numMMUnits;
+    	int myFrom = mmUnit ? 0 : numMMUnits;
+    	int myTo = mmUnit ? numMMUnits : getNumUnits();
+    	int base = unit * UNIT_FIELDS;
+
+    	for(Direction direction: DIRECTIONS){
+    		int x = units[base + X] + direction.xComponent();
+    		int y = units[base + Y] + direction.yComponent();
     		if(!isValidPoint(direction,x,y)){
     			continue;
     		}
-    		UnitInfo enemy = getUnitAt(enemies, x, y);
-    		if(enemy != null){
-    			Action a = Action.createPrimitiveAttack(unit.id, enemy.id);
-    			List<UnitInfo> allUnits = new ArrayList<UnitInfo>();
-    	    	allUnits.addAll(mmUnits);
-    	    	allUnits.addAll(archers);
-    			allUnits.remove(enemy);
-    			allUnits.add(new UnitInfo(enemy.id, enemy.x, enemy.y, enemy.range, enemy.attk, enemy.curHealth - unit.attk, enemy.baseHealth, enemy.isMMUnit));
-    			
-    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
-    			List<UnitInfo> newArchers = new LinkedList<UnitInfo>();
-    			separateMMUnits(allUnits, newMMUnits, newArchers);
-    			
-    			Map<Integer, Action> newActions = new HashMap<Integer, Action>();
-    			//if(unit.isMMUnit){
-	    			newActions.putAll(actions);
-	    			newActions.put(maxMapIndex + 1, a);
-    			//}else{
-    			//	newActions.putAll(lastActions);
-    			//}
-    			GameState newGameState = new GameState(this.xExtent, this.yExtent, newMMUnits, newArchers, this.resources, this.turnNumber + 1, newActions);
-    			children.add(new GameStateChild(newActions, newGameState));
-    		}else if(!resourceAt(x,y) && getUnitAt(myUnits, x, y) == null){
-    			Action a = Action.createPrimitiveMove(unit.id, direction);
-    			List<UnitInfo> allUnits = new ArrayList<UnitInfo>();
-    	    	allUnits.addAll(mmUnits);
-    	    	allUnits.addAll(archers);
-    			allUnits.remove(unit);
-    			allUnits.add(new UnitInfo(unit.id, x, y, unit.range, unit.attk, unit.curHealth, unit.baseHealth, unit.isMMUnit));
-    			
-    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
-    			List<UnitInfo> newArchers = new LinkedList<UnitInfo>();
-    			separateMMUnits(allUnits, newMMUnits, newArchers);
-    			
-    			Map<Integer, Action> newActions = new HashMap<Integer, Action>();
-    			//if(unit.isMMUnit){
-	    			newActions.putAll(actions);
-	    			newActions.put(maxMapIndex + 1, a);
-    			//}else{
-    			//	newActions.putAll(lastActions);
-    			//}
-    			GameState newGameState = new GameState(this.xExtent, this.yExtent, newMMUnits, newArchers, this.resources, this.turnNumber + 1, newActions);
-    			
-    			children.add(new GameStateChild(newActions, newGameState));
-    		}
-    	}
-    	return children;
-    }
-    
-    private boolean isValidPoint(Direction d, int x, int y) {
-		return d.xComponent() + d.yComponent() <= 1 && x >= 0 && y >= 0 && x < xExtent && y < yExtent;
-	}
+    		int enemy = getUnitAt(enemyFrom, enemyTo, x, y);
+    		if(enemy >= 0){
+    			actions[count++] = encodeAction(unit, true, enemy);
+    		}else if(!resourceAt(x,y) && getUnitAt(myFrom, myTo, x, y) < 0){
+    			actions[count++] = encodeAction(unit, false, direction.ordinal());
+    		}
+    	}
+    	return count;
+    }
 
-	private void separateMMUnits(List<UnitInfo> all, List<UnitInfo> mm, List<UnitInfo> arch){
-    	for(UnitInfo u : all){
-			if(u.isMMUnit){
-				mm.add(u);
-			}else{
-				arch.add(u);
-			}
-		}
+    static int encodeAction(int unit, boolean attack, int arg){
+    	return PRESENT_FLAG | (attack ? ATTACK_FLAG : 0) | arg << 6 | unit;
     }
-    
-    private boolean resourceAt(int x, int y){
-    	return resources.contains(new ResourceInfo(x, y));
+
+    static int firstAction(int move){
+    	return move & ACTION_MASK;
+    }
+
+    static int secondAction(int move){
+    	return move >>> ACTION_BITS & ACTION_MASK;
+    }
+
+    static boolean isPresent(int action){
+    	return (action & PRESENT_FLAG) != 0;
     }
-    
-    private GameState copy(){
-    	List<UnitInfo> newMM = new ArrayList<UnitInfo>();
-    	for( UnitInfo unit : mmUnits ){
-    		newMM.add(new UnitInfo(unit.id, unit.x, unit.y, unit.range, unit.attk, unit.curHealth, unit.baseHealth, true));
+
+    static boolean isAttack(int action){
+    	return (action & ATTACK_FLAG) != 0;
+    }
+
+    static int actingUnit(int action){
+    	return action & 63;
+    }
+
+    static int actionArg(int action){
+    	return action >>> 6 & 63;
+    }
+
+    /**
+     * Applies one unit action to a units array, logging overwritten values to
+     * the undo log when log is set.
+     *
+     * @return The value to XOR into the hash for the change
+     */
+    private long applyAction(int[] into, int action, boolean log){
+    	int unit = actingUnit(action);
+    	int base = unit * UNIT_FIELDS;
+    	if(isAttack(action)){
+    		int target = actionArg(action);
+    		int hp = target * UNIT_FIELDS + HP;
+    		if(log){
+    			pushUndo(hp, into[hp]);
+    		}
+    		long delta = zobrist.healthKey(target, into[hp]);
+    		into[hp] -= into[base + ATTK];
+    		return delta ^ zobrist.healthKey(target, into[hp]);
+    	}else{
+    		Direction direction = DIRECTIONS[actionArg(action)];
+    		if(log){
+    			pushUndo(base + X, into[base + X]);
+    			pushUndo(base + Y, into[base + Y]);
+    		}
+    		long delta = zobrist.positionKey(unit, into[base + X], into[base + Y]);
+    		into[base + X] += direction.xComponent();
+    		into[base + Y] += direction.yComponent();
+    		return delta ^ zobrist.positionKey(unit, into[base + X], into[base + Y]);
+    	}
+    }
+
+    /**
+     * @return The SEPIA action that an encoded unit action stands for
+     */
+    Action toAction(int action){
+    	int id = get(actingUnit(action), ID);
+    	if(isAttack(action)){
+    		return Action.createPrimitiveAttack(id, get(actionArg(action), ID));
+    	}
+    	return Action.createPrimitiveMove(id, DIRECTIONS[actionArg(action)]);
+    }
+
+    /**
+     * Turns a packed move into the SEPIA action map for it, keyed by the id of
+     * each acting unit. The search works on packed moves only; this is called
+     * once per turn for the move returned from middleStep, and by getChildren().
+     */
+    Map<Integer, Action> toActionMap(int move){
+    	Map<Integer, Action> actions = new HashMap<Integer, Action>();
+    	if(isPresent(firstAction(move))){
+    		actions.put(get(actingUnit(firstAction(move)), ID), toAction(firstAction(move)));
+    	}
+    	if(isPresent(secondAction(move))){
+    		actions.put(get(actingUnit(secondAction(move)), ID), toAction(secondAction(move)));
+    	}
+    	return actions;
+    }
+
+    /**
+     * Heuristic value of a unit action for the side taking it, used to order
+     * moves so that alpha-beta meets its cutoffs early. Attacks come first,
+     * ranked by the share of the target's current HP they take off (a killing
+     * blow scores highest). Moves follow, ranked by how much closer a footman
+     * gets to its nearest archer, or how much further an archer gets from its
+     * nearest footman.
+     */
+    int scoreAction(int action){
+    	int unit = actingUnit(action);
+    	return scoreAction(action, isAttack(action) ? 0 : nearestEnemyDistance(unit, get(unit, X), get(unit, Y)));
+    }
+
+    /**
+     * @param nearest The acting unit's nearestEnemyDistance where it stands, only read for moves
+     */
+    private int scoreAction(int action, int nearest){
+    	int unit = actingUnit(action);
+    	int base = unit * UNIT_FIELDS;
+    	if(isAttack(action)){
+    		int targetHp = Math.max(1, units[actionArg(action) * UNIT_FIELDS + HP]);
+    		return ATTACK_SCORE + Math.min(1000, 1000 * units[base + ATTK] / targetHp);
     	}
-    	List<UnitInfo> newArch = new ArrayList<UnitInfo>();
-    	for( UnitInfo unit : archers ){
-    		newArch.add(new UnitInfo(unit.id, unit.x, unit.y, unit.range, unit.attk, unit.curHealth, unit.baseHealth, true));
+    	Direction direction = DIRECTIONS[actionArg(action)];
+    	int x = units[base + X];
+    	int y = units[base + Y];
+    	int closing = nearest - nearestEnemyDistance(unit, x + direction.xComponent(), y + direction.yComponent());
+    	return isMMUnit(unit) ? closing : -closing;
+    }
+
+    /**
+     * Writes the scoreAction of count actions of one unit to scores from
+     * offset, finding the unit's nearest enemy where it stands once for all
+     * of them.
+     */
+    private void scoreActions(int[] actions, int count, int[] scores, int offset){
+    	int nearest = -1;
+    	for(int i = 0; i < count; i++){
+    		if(nearest < 0 && !isAttack(actions[i])){
+    			int unit = actingUnit(actions[i]);
+    			nearest = nearestEnemyDistance(unit, get(unit, X), get(unit, Y));
+    		}
+    		scores[offset + i] = scoreAction(actions[i], nearest);
+    	}
+    }
+
+    /** Lowest score scoreAction gives an attack; every move scores below it */
+    static final int ATTACK_SCORE = 1000000;
+
+    /**
+     * @return The fewest moves between a unit standing at (x, y) and the
+     * enemies, counted from the footman's side of each pair
+     */
+    private int nearestEnemyDistance(int unit, int x, int y){
+    	boolean mmUnit = isMMUnit(unit);
+    	int from = mmUnit ? numMMUnits : 0;
+    	int to = mmUnit ? getNumUnits() : numMMUnits;
+    	int nearest = map.getUnreachable();
+    	for(int enemy = from; enemy < to; enemy++){
+    		if(isAlive(enemy)){
+    			int distance = mmUnit ? map.distance(x, y, get(enemy, X), get(enemy, Y))
+    					: map.distance(get(enemy, X), get(enemy, Y), x, y);
+    			nearest = Math.min(nearest, distance);
+    		}
     	}
-    	return new GameState(this.xExtent, this.yExtent, newMM, newArch, resources, turnNumber + 1, lastActions);
+    	return nearest;
+    }
+
+    /**
+     * @return The summed scoreAction of the unit actions that produced this state
+     */
+    int getOrderingScore(){
+    	return orderingScore;
+    }
+
+    private boolean isValidPoint(Direction d, int x, int y) {
+		return MapLayer.isStep(d) && x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+
+    private boolean resourceAt(int x, int y){
+    	return map.isBlocked(x, y);
     }
 
     /**
@@ -347,97 +637,591 @@ public class GameState {
      * x += direction.xComponent()
      * y += direction.yComponent()
      *
-     * @return All possible actions and their associated resulting game state
+     * The first two living units of the side to move are expanded: every move of
+     * the first unit, then every move of the second unit from each of those. A unit
+     * with no legal move is skipped rather than ending the expansion. With
+     * factored moves (see getMoves) a child is one unit's action instead.
+     * Children that are symmetric images of an earlier child, mirrored across
+     * the diagonal of a symmetric map, are left out unless the state was
+     * built without symmetry reduction (see getMoves and Symmetry).
+     *
+     * This builds every child and its action map up front; a search that may
+     * stop early should walk childIterator() instead, which builds them one at
+     * a time, and can skip the action maps (see ChildCursor.nextState()).
+     * Action maps are keyed by unit id.
+     *
+     * @return Every action up to symmetry and its associated resulting game state
      */
     public List<GameStateChild> getChildren() {
-    	List<GameStateChild> ret = new LinkedList<GameStateChild>();
-    	
-    	UnitInfo unit1 = null;
-    	UnitInfo unit2 = null;
-    	if(isMMTurn()){
-    		unit1 = mmUnits.get(0);
-    		if(mmUnits.size() > 1){
-    			unit2 = mmUnits.get(1);
+    	List<GameStateChild> ret = new ArrayList<GameStateChild>();
+    	Iterator<GameStateChild> children = childIterator(false);
+    	while(children.hasNext()){
+    		ret.add(children.next());
+    	}
+    	return ret;
+    }
+
+    /**
+     * Iterates over the children of this state without building any of them
+     * in advance. The moves are generated as packed ints when the iterator is
+     * created; a child state and its action map are only built when next()
+     * reaches it.
+     *
+     * @param staged Whether to return captures first, then quiet moves, each
+     * best getOrderingScore first and otherwise in generation order (the order
+     * MinimaxAlphaBeta.orderChildrenWithHeuristics would sort getChildren()
+     * into). Otherwise the children come in getChildren() order.
+     */
+    ChildCursor childIterator(boolean staged){
+    	return new ChildCursor(staged);
+    }
+
+    class ChildCursor implements Iterator<GameStateChild> {
+    	private final int[] moves = new int[64];
+    	private final int[] scores = new int[64];
+    	private final int count;
+    	private final boolean staged;
+    	/* Moves before next have been returned; in the capture stage only captures are picked */
+    	private int next;
+    	private boolean capturesLeft;
+
+    	ChildCursor(boolean staged){
+    		this.staged = staged;
+    		count = getMoves(moves, scores);
+    		capturesLeft = staged;
+    	}
+
+    	@Override
+    	public boolean hasNext(){
+    		return next < count;
+    	}
+
+    	@Override
+    	public GameStateChild next(){
+    		GameState child = nextState();
+    		return new GameStateChild(toActionMap(lastMove()), child);
+    	}
+
+    	/**
+    	 * Like next(), but builds only the child state and no action map or SEPIA
+    	 * actions. lastMove() tells which move it was reached by.
+    	 */
+    	GameState nextState(){
+    		if(next >= count){
+    			throw new NoSuchElementException();
     		}
-    	}else{
-    		unit1 = archers.get(0);
-    		if(archers.size() > 1){
-    			unit2 = archers.get(1);
+    		if(staged){
+    			pickBest();
     		}
+    		return buildChild(moves[next], scores[next++]);
+    	}
+
+    	/**
+    	 * @return The packed move of the child last returned
+    	 */
+    	int lastMove(){
+    		return moves[next - 1];
+    	}
+
+    	@Override
+    	public void remove(){
+    		throw new UnsupportedOperationException();
     	}
-    	
-    	Map<Integer, Action> firstActions = isMMTurn()? new HashMap<Integer, Action>() : lastActions;
-    	List<GameStateChild> unit1Moves = getUnitMoves(unit1, this, firstActions, -1, lastActions);
-    	if(unit2 != null){
-    		for(GameStateChild child : unit1Moves){
-    			ret.addAll(getUnitMoves(unit2, child.state, child.action, 0, lastActions));
+
+    	/**
+    	 * Moves the best remaining move of the current stage to position next,
+    	 * shifting the ones it passes so equal moves keep their order.
+    	 */
+    	private void pickBest(){
+    		int best = -1;
+    		if(capturesLeft){
+    			for(int i = next; i < count; i++){
+    				if(isCapture(moves[i]) && (best < 0 || scores[i] > scores[best])){
+    					best = i;
+    				}
+    			}
+    			capturesLeft = best >= 0;
     		}
-    	}else{
-    		ret.addAll(unit1Moves);
+    		if(best < 0){
+    			best = next;
+    			for(int i = next + 1; i < count; i++){
+    				if(scores[i] > scores[best]){
+    					best = i;
+    				}
+    			}
+    		}
+    		int move = moves[best];
+    		int score = scores[best];
+    		System.arraycopy(moves, next, moves, next + 1, best - next);
+    		System.arraycopy(scores, next, scores, next + 1, best - next);
+    		moves[next] = move;
+    		scores[next] = score;
     	}
-    	return ret;
-    	
-    	
-    	/*Map<Integer, Action> actions = new HashMap<Integer, Action>();
-    	Action unit1Actions[] = new Action[10];
-    	UnitInfo unit1Positions[] = new UnitInfo[10];
-    	Action unit2Actions[] = null;
-    	UnitInfo unit2Positions[] = null;
-    	int index = 0;
-    	UnitInfo unit1 = null;
-    	if(isMMTurn()){
-    		unit1 = mmUnits.get(0);
+    }
+
+    /**
+     * @return The state reached by a move from getMoves()
+     */
+    private GameState buildChild(int move, int score){
+    	GameState child = new GameState(this, units.clone(), turnNumber, hash, 0);
+    	child.utilityStale = true;
+    	if(isPresent(firstAction(move))){
+    		child.play(firstAction(move), false);
+    	}
+    	if(isPresent(secondAction(move))){
+    		child.play(secondAction(move), false);
+    	}
+    	child.endMove();
+    	child.orderingScore = score;
+    	return child;
+    }
+
+    /**
+     * Passes the turn on after a move's actions are played. With factored
+     * moves the next unit of the side to move acts first, and the turn only
+     * passes to the other side after the last of them.
+     */
+    private void endMove(){
+    	if(factored){
+    		hash ^= Zobrist.actedKey(acted);
+    		if(getMover(acted + 1) >= 0){
+    			acted++;
+    			hash ^= Zobrist.actedKey(acted);
+    			return;
+    		}
+    		acted = 0;
+    	}
+    	turnNumber++;
+    	hash ^= Zobrist.SIDE_KEY;
+    }
+
+    /**
+     * @return Whether either unit action of a move is an attack
+     */
+    static boolean isCapture(int move){
+    	int second = secondAction(move);
+    	return isAttack(firstAction(move)) || isPresent(second) && isAttack(second);
+    }
+
+    /**
+     * @return True if either side has no living units left
+     */
+    public boolean isTerminal(){
+    	boolean mmAlive = false;
+    	boolean archAlive = false;
+    	for(int unit = 0; unit < getNumUnits(); unit++){
+    		if(isAlive(unit)){
+    			if(isMMUnit(unit)){
+    				mmAlive = true;
+    			}else{
+    				archAlive = true;
+    			}
+    		}
+    	}
+    	return !mmAlive || !archAlive;
+    }
+
+    /**
+     * Writes every move of the side to move into moves, in the same order as
+     * getChildren() would produce the corresponding children. Used with
+     * makeMove/unmakeMove to search without copying states.
+     *
+     * A move whose child is a symmetric image of an earlier move's child,
+     * such as the same squares taken by two identical footmen the other way
+     * round, is left out (see Symmetry); it would only search the same
+     * subtree again.
+     *
+     * With factored moves a move is the action of one unit instead: every
+     * living unit of the side to move acts in turn, each one move (one ply)
+     * deeper than the one before, and the other side only moves once all of
+     * them have. A unit with no action has the single move PASS. The side's
+     * turn is then a chain of about 5 moves per unit rather than about 5^N
+     * joint moves for N units, which alpha-beta can cut off after any unit,
+     * and it is not limited to two units.
+     *
+     * @param scores If not null, receives the scoreAction sum of each move
+     * @return The number of moves written
+     */
+    int getMoves(int[] moves, int[] scores){
+    	int count = factored ? generateUnitMoves(moves, scores) : generateMoves(moves, scores);
+    	if(symmetry != null && count > 1
+    			&& symmetry.mayRepeat(units, getMover(acted), factored ? -1 : getMover(1))){
+    		return dropSymmetricMoves(moves, scores, count);
+    	}
+    	return count;
+    }
+
+    private int generateUnitMoves(int[] moves, int[] scores){
+    	int unit = getMover(acted);
+    	if(unit < 0 || isTerminal()){
+    		return 0;
+    	}
+    	int count = getUnitActions(unit, moves, 0);
+    	if(count == 0){
+    		moves[count++] = PASS;
+    		if(scores != null){
+    			scores[0] = 0;
+    		}
+    		return count;
+    	}
+    	if(scores != null){
+    		scoreActions(moves, count, scores, 0);
+    	}
+    	return count;
+    }
+
+    private int generateMoves(int[] moves, int[] scores){
+    	int unit1 = getMover(0);
+    	int unit2 = getMover(1);
+    	if(unit1 < 0 || isTerminal()){
+    		return 0;
+    	}
+    	if(unit1Actions == null){
+    		unit1Actions = new int[DIRECTIONS.length];
+    		unit2Actions = new int[DIRECTIONS.length];
+    	}
+    	if(unit1Scores == null){
+    		unit1Scores = new int[DIRECTIONS.length];
+    	}
+    	int count = 0;
+    	int n1 = getUnitActions(unit1, unit1Actions, 0);
+    	if(unit2 < 0 || n1 == 0){
+    		int n = unit2 < 0 ? n1 : getUnitActions(unit2, unit1Actions, 0);
+    		for(int i = 0; i < n; i++){
+    			moves[count++] = unit1Actions[i];
+    		}
+    		if(scores != null){
+    			scoreActions(unit1Actions, n, scores, 0);
+    		}
+    		return count;
+    	}
+    	if(scores != null){
+    		scoreActions(unit1Actions, n1, unit1Scores, 0);
+    	}
+    	for(int i = 0; i < n1; i++){
+    		int score1 = scores != null ? unit1Scores[i] : 0;
+    		int mark = undoTop;
+    		applyAction(units, unit1Actions[i], true);
+    		int n2 = getUnitActions(unit2, unit2Actions, 0);
+    		if(n2 == 0){
+    			if(scores != null){
+    				scores[count] = score1;
+    			}
+    			moves[count++] = unit1Actions[i];
+    		}
+    		if(scores != null){
+    			// Scored after the first unit's action, like getChildren() does
+    			scoreActions(unit2Actions, n2, scores, count);
+    		}
+    		for(int j = 0; j < n2; j++){
+    			if(scores != null){
+    				scores[count] += score1;
+    			}
+    			moves[count++] = unit1Actions[i] | unit2Actions[j] << ACTION_BITS;
+    		}
+    		undoTo(mark);
+    	}
+    	return count;
+    }
+
+    /**
+     * Writes the moves of the side to move that only attack, which the
+     * quiescence search past the search depth expands (see AlphaBetaSearcher).
+     * With joint moves each of the two units to move attacks if it can, the
+     * second after the first's attack as in getMoves(), and a unit with no
+     * attack waits. With factored moves they are likewise the attacks of the
+     * unit to move, or PASS when it has none; at the start of the turn there
+     * are none unless some unit of the side can attack.
+     *
+     * @param scores If not null, receives the scoreAction sum of each move
+     * @return The number of moves written, 0 if the side has no attack
+     */
+    int getCaptures(int[] moves, int[] scores){
+    	if(unit1Actions == null){
+    		unit1Actions = new int[DIRECTIONS.length];
+    		unit2Actions = new int[DIRECTIONS.length];
+    	}
+    	if(isTerminal()){
+    		return 0;
+    	}
+    	if(factored){
+    		int unit = getMover(acted);
+    		if(unit < 0){
+    			return 0;
+    		}
+    		int count = getUnitAttacks(unit, moves);
+    		for(int i = 0; scores != null && i < count; i++){
+    			scores[i] = scoreAction(moves[i]);
+    		}
+    		if(count > 0 || acted == 0 && !canAttack(1)){
+    			return count;
+    		}
+    		moves[0] = PASS;
+    		if(scores != null){
+    			scores[0] = 0;
+    		}
+    		return 1;
+    	}
+    	int unit1 = getMover(0);
+    	int unit2 = getMover(1);
+    	int n1 = unit1 < 0 ? 0 : getUnitAttacks(unit1, unit1Actions);
+    	if(n1 == 0){
+    		int n = unit2 < 0 ? 0 : getUnitAttacks(unit2, moves);
+    		for(int i = 0; scores != null && i < n; i++){
+    			scores[i] = scoreAction(moves[i]);
+    		}
+    		return n;
+    	}
+    	int count = 0;
+    	for(int i = 0; i < n1; i++){
+    		int score1 = scores != null ? scoreAction(unit1Actions[i]) : 0;
+    		int mark = undoTop;
+    		applyAction(units, unit1Actions[i], true);
+    		int n2 = unit2 < 0 ? 0 : getUnitAttacks(unit2, unit2Actions);
+    		if(n2 == 0){
+    			if(scores != null){
+    				scores[count] = score1;
+    			}
+    			moves[count++] = unit1Actions[i];
+    		}
+    		for(int j = 0; j < n2; j++){
+    			if(scores != null){
+    				scores[count] = score1 + scoreAction(unit2Actions[j]);
+    			}
+    			moves[count++] = unit1Actions[i] | unit2Actions[j] << ACTION_BITS;
+    		}
+    		undoTo(mark);
+    	}
+    	return count;
+    }
+
+    /**
+     * @return Whether the n-th living unit of the side to move or one after it has an attack
+     */
+    private boolean canAttack(int n){
+    	for(int unit = getMover(n); unit >= 0; unit = getMover(++n)){
+    		if(getUnitAttacks(unit, unit1Actions) > 0){
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Writes the attacks among a unit's actions (see getUnitActions) to actions.
+     *
+     * @return The number of attacks written
+     */
+    private int getUnitAttacks(int unit, int[] actions){
+    	int count = getUnitActions(unit, actions, 0);
+    	int attacks = 0;
+    	for(int i = 0; i < count; i++){
+    		if(isAttack(actions[i])){
+    			actions[attacks++] = actions[i];
+    		}
+    	}
+    	return attacks;
+    }
+
+    /**
+     * Picks a move for the side to move the way a Monte Carlo rollout plays
+     * (see UctSearcher), without generating every move: each of the two
+     * units to move takes its best scored attack if it has one, and otherwise
+     * the better scored (see scoreAction) of two of its moves drawn at random.
+     * The second unit picks after the first unit's action, as in getMoves().
+     *
+     * @return A move as getMoves() would write it, or 0 if there is none
+     */
+    int rolloutMove(SplittableRandom random){
+    	int unit1 = getMover(0);
+    	int unit2 = getMover(1);
+    	if(unit1 < 0){
+    		return 0;
+    	}
+    	if(unit1Actions == null){
+    		unit1Actions = new int[DIRECTIONS.length];
+    		unit2Actions = new int[DIRECTIONS.length];
+    	}
+    	int first = rolloutAction(unit1, unit1Actions, random);
+    	if(unit2 < 0){
+    		return first;
+    	}
+    	if(first == 0){
+    		return rolloutAction(unit2, unit2Actions, random);
+    	}
+    	int mark = undoTop;
+    	applyAction(units, first, true);
+    	int second = rolloutAction(unit2, unit2Actions, random);
+    	undoTo(mark);
+    	return first | second << ACTION_BITS;
+    }
+
+    /**
+     * @return The action rolloutMove() picks for unit, or 0 if it has none
+     */
+    private int rolloutAction(int unit, int[] actions, SplittableRandom random){
+    	int count = getUnitActions(unit, actions, 0);
+    	if(count == 0){
+    		return 0;
+    	}
+    	int best = 0;
+    	int bestScore = Integer.MIN_VALUE;
+    	for(int i = 0; i < count; i++){
+    		if(isAttack(actions[i])){
+    			int score = scoreAction(actions[i]);
+    			if(score > bestScore){
+    				bestScore = score;
+    				best = actions[i];
+    			}
+    		}
+    	}
+    	if(best != 0){
+    		return best;
+    	}
+    	int a = actions[random.nextInt(count)];
+    	int b = actions[random.nextInt(count)];
+    	return a == b || scoreAction(a) >= scoreAction(b) ? a : b;
+    }
+
+    /**
+     * Removes the moves whose child has the canonical form of an earlier
+     * move's child, keeping the order of the rest.
+     *
+     * @return The number of moves kept
+     */
+    private int dropSymmetricMoves(int[] moves, int[] scores, int count){
+    	if(childSlots == null || childSlots.length < 2 * count){
+    		childSlots = new int[Integer.highestOneBit(2 * count - 1) << 1];
     	}else{
-    		unit1 = archers.get(0);
-    	}
-    	UnitInfo unit2 = null;
-    	if(mmUnits.size() > 1){
-    		if(isMMTurn()){
-    			unit2 = mmUnits.get(1);
-    		}else{
-    			unit2 = archers.get(1);
-    		}
-    		unit2Actions = new Action[10];
-    		unit2Positions = new UnitInfo[10];
-    	}
-    	for( Direction direction : Direction.values()){
-    		unit1Actions[index] = Action.createPrimitiveMove(unit1.id, direction);
-    		unit1Positions[index] = new UnitInfo(unit1.id, unit1.x + direction.xComponent(), unit1.y + direction.yComponent(), 
-    				unit1.range, unit1.attk, unit1.curHealth, unit2.baseHealth);
-    		if(unit2 != null){
-    			unit2Actions[index] = Action.createPrimitiveMove(unit1.id, direction);
-        		unit2Positions[index] = new UnitInfo(unit2.id, unit2.x + direction.xComponent(), unit2.y + direction.yComponent(), 
-        				unit2.range, unit2.attk, unit2.curHealth, unit2.baseHealth);
-    		}
-    		index++;
-    	}
-    	for(int unit1Move = 0; unit1Move < 10 && unit1Actions[unit1Move] != null; unit1Move++){
-    		Action curUnit1Action = unit1Actions[unit1Move];
-    		UnitInfo nextUnit1 = unit1Positions[unit1Move];
-    		if(unit2 != null){
-	    		for( int unit2Move = 0; unit2Move < 10 && unit2Actions[unit2Move] != null; unit2Move++){
-	    			Action curUnit2Action = unit2Actions[unit2Move];
-	    			UnitInfo nextUnit2 = unit2Positions[unit2Move];
-	    			actions.put(nextUnit1.id, curUnit1Action);
-	    			actions.put(nextUnit2.id, curUnit2Action);
-	    			
-	    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
-	    			newMMUnits.add(nextUnit1);
-	    			newMMUnits.add(nextUnit2);
-	    			GameStateChild child = new GameStateChild(actions, new GameState(this.xExtent, this.yExtent, newMMUnits, 
-	    					this.archers, this.resources, this.turnNumber + 1));
-	    			ret.add(child);
-	    		}
-    		}else{
-    			actions.put(nextUnit1.id, curUnit1Action);
-    			List<UnitInfo> newMMUnits = new LinkedList<UnitInfo>();
-    			newMMUnits.add(nextUnit1);
-    			GameStateChild child = new GameStateChild(actions, new GameState(this.xExtent, this.yExtent, newMMUnits, 
-    					this.archers, this.resources, this.turnNumber + 1));
-    			ret.add(child);
-    		}
-    		actions.clear();
-    	}
-    	*/
+    		Arrays.fill(childSlots, 0);
+    	}
+    	if(childForms == null || childForms.length < count){
+    		childForms = new long[childSlots.length][units.length / UNIT_FIELDS];
+    	}
+    	int slotMask = childSlots.length - 1;
+    	int kept = 0;
+    	for(int i = 0; i < count; i++){
+    		int mark = undoTop;
+    		applyAction(units, firstAction(moves[i]), true);
+    		if(isPresent(secondAction(moves[i]))){
+    			applyAction(units, secondAction(moves[i]), true);
+    		}
+    		// Written past the kept forms, where it stays if the move is kept
+    		long[] form = childForms[kept];
+    		symmetry.canonicalForm(units, form);
+    		undoTo(mark);
+    		int slot = Arrays.hashCode(form) & slotMask;
+    		while(childSlots[slot] != 0 && !Arrays.equals(childForms[childSlots[slot] - 1], form)){
+    			slot = (slot + 1) & slotMask;
+    		}
+    		if(childSlots[slot] == 0){
+    			childSlots[slot] = kept + 1;
+    			moves[kept] = moves[i];
+    			if(scores != null){
+    				scores[kept] = scores[i];
+    			}
+    			kept++;
+    		}
+    	}
+    	return kept;
+    }
+
+    /**
+     * @return Whether move is one of the moves getMoves() writes; for moves
+     * that do not come from this state's own move generation (see OpeningBook)
+     */
+    boolean isLegalMove(int move){
+    	int[] moves = new int[64];
+    	int count = getMoves(moves, null);
+    	for(int i = 0; i < count; i++){
+    		if(moves[i] == move){
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Plays a move from getMoves() on this state in place. Must be paired with unmakeMove().
+     */
+    void makeMove(int move){
+    	if(hashHistory == null){
+    		hashHistory = new long[32];
+    		utilityHistory = new int[32];
+    	}else if(hashTop == hashHistory.length){
+    		hashHistory = Arrays.copyOf(hashHistory, hashTop * 2);
+    		utilityHistory = Arrays.copyOf(utilityHistory, hashTop * 2);
+    	}
+    	utilityHistory[hashTop] = currentUtility();
+    	hashHistory[hashTop++] = hash;
+
+    	int mark = undoTop;
+    	if(isPresent(firstAction(move))){
+    		play(firstAction(move), true);
+    	}
+    	if(isPresent(secondAction(move))){
+    		play(secondAction(move), true);
+    	}
+    	// The entry closing the move also keeps the acted count from before it
+    	pushUndo(mark, acted);
+    	endMove();
+    	assert hash == computeHash();
+    	assert utility == computeUtility();
+    }
+
+    /**
+     * Takes back the last move played with makeMove().
+     */
+    void unmakeMove(){
+    	// Only a move that ended the turn leaves no unit of the side having acted
+    	if(acted == 0){
+    		turnNumber--;
+    	}
+    	hash = hashHistory[--hashTop];
+    	utility = utilityHistory[hashTop];
+    	undoTop -= 2;
+    	acted = undo[undoTop + 1];
+    	undoTo(undo[undoTop]);
+    }
+
+    /**
+     * @return An independent copy of this state, sharing only the immutable map
+     * data, for another search thread to play moves on
+     */
+    GameState copy(){
+    	return new GameState(this, units.clone(), turnNumber, hash, currentUtility());
+    }
+
+    /**
+     * A search plays a SEPIA turn as two turns, the footmen's and the archers',
+     * so a position two search turns on is the one SEPIA numbers one turn on.
+     *
+     * @param turnNumber The SEPIA turn number the position is to have
+     * @return A copy of this state, which must be between turns, numbered and
+     * hashed as a GameState built from SEPIA's view at turnNumber would be
+     */
+    GameState atTurn(int turnNumber){
+    	assert acted == 0;
+    	GameState state = new GameState(this, units.clone(), turnNumber, 0, currentUtility());
+    	state.hash = state.computeHash();
+    	return state;
+    }
+
+    private void pushUndo(int index, int value){
+    	if(undo == null){
+    		undo = new int[64];
+    	}else if(undoTop + 2 > undo.length){
+    		undo = Arrays.copyOf(undo, undo.length * 2);
+    	}
+    	undo[undoTop++] = index;
+    	undo[undoTop++] = value;
+    }
+
+    private void undoTo(int mark){
+    	while(undoTop > mark){
+    		int value = undo[--undoTop];
+    		int index = undo[--undoTop];
+    		units[index] = value;
+    	}
     }
 }
@@ -0,0 +1,259 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The parts of a map that never change during a game: its size, the cells
+ * blocked by resources, and the number of moves a unit needs to get from one
+ * cell to another around them.
+ *
+ * Blocked cells are a bitset, one bit per cell. Distances are computed by a
+ * breadth-first search per target cell the first time that target is asked
+ * for, over the moves GameState allows (every direction but SOUTHEAST, see
+ * isStep), and kept. Other units are ignored: they move out of the way.
+ *
+ * Each cell also keeps how many steps lead out of it and how many of its
+ * eight neighbours are blocked or off the map, for the evaluation features
+ * of the same names (see EvalWeights).
+ *
+ * GameState is built anew every turn, so layers are cached by map (its size
+ * and blocked cells) and handed out again for the same map; their distance
+ * fields then carry over from turn to turn. Games on different maps, such as
+ * Tournament's on parallel threads, each keep their own layer.
+ */
+final class MapLayer {
+
+    /* Cached maps beyond this many are all dropped, bounding what a long run of generated maps keeps */
+    private static final int CACHE_LIMIT = 64;
+    private static final ConcurrentHashMap<Key, MapLayer> cache = new ConcurrentHashMap<Key, MapLayer>();
+
+    private final int xExtent;
+    private final int yExtent;
+    private final long[] blocked;
+    /* Hash of the extents and blocked cells, the same in every run */
+    private final long mapHash;
+    /* Moves needed to reach each target cell from every cell, by target, filled in on first use */
+    private final AtomicReferenceArray<short[]> distances;
+    /* Distance reported between cells with no path between them */
+    private final int unreachable;
+    private final boolean transposable;
+    /* Per cell: steps onto open cells, and neighbours blocked or off the map */
+    private final byte[] openSteps;
+    private final byte[] blockedNeighbours;
+
+    private MapLayer(int xExtent, int yExtent, long[] blocked) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.blocked = blocked;
+        long hash = Zobrist.mix((long) xExtent << 32 | yExtent);
+        for (long word : blocked) {
+            hash = Zobrist.mix(hash ^ word);
+        }
+        mapHash = hash;
+        distances = new AtomicReferenceArray<short[]>(xExtent * yExtent);
+        unreachable = Math.min(xExtent * yExtent, Short.MAX_VALUE);
+        transposable = xExtent == yExtent && isSymmetric();
+        openSteps = new byte[xExtent * yExtent];
+        blockedNeighbours = new byte[xExtent * yExtent];
+        for (int cell = 0; cell < openSteps.length; cell++) {
+            int x = cell % xExtent;
+            int y = cell / xExtent;
+            for (Direction d : Direction.values()) {
+                int nx = x + d.xComponent();
+                int ny = y + d.yComponent();
+                boolean open = nx >= 0 && ny >= 0 && nx < xExtent && ny < yExtent && !isBlocked(nx, ny);
+                if (!open) {
+                    blockedNeighbours[cell]++;
+                } else if (isStep(d)) {
+                    openSteps[cell]++;
+                }
+            }
+        }
+    }
+
+    private boolean isSymmetric() {
+        for (int y = 0; y < yExtent; y++) {
+            for (int x = 0; x < y; x++) {
+                if (isBlocked(x, y) != isBlocked(y, x)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The layer of the map of state, reusing the last one when the map is the same
+     */
+    static MapLayer of(State.StateView state) {
+        int xExtent = state.getXExtent();
+        int yExtent = state.getYExtent();
+        long[] blocked = new long[(xExtent * yExtent + 63) >>> 6];
+        for (Integer id : state.getAllResourceIds()) {
+            ResourceView resource = state.getResourceNode(id);
+            int cell = resource.getYPosition() * xExtent + resource.getXPosition();
+            blocked[cell >>> 6] |= 1L << cell;
+        }
+        Key key = new Key(xExtent, yExtent, blocked);
+        MapLayer layer = cache.get(key);
+        if (layer == null) {
+            if (cache.size() >= CACHE_LIMIT) {
+                cache.clear();
+            }
+            MapLayer built = new MapLayer(xExtent, yExtent, blocked);
+            layer = cache.putIfAbsent(key, built);
+            if (layer == null) {
+                layer = built;
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * What tells maps apart: their size and blocked cells.
+     */
+    private static final class Key {
+        private final int xExtent;
+        private final int yExtent;
+        private final long[] blocked;
+        private final int hash;
+
+        Key(int xExtent, int yExtent, long[] blocked) {
+            this.xExtent = xExtent;
+            this.yExtent = yExtent;
+            this.blocked = blocked;
+            this.hash = (xExtent * 31 + yExtent) * 31 + Arrays.hashCode(blocked);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return xExtent == key.xExtent && yExtent == key.yExtent && Arrays.equals(blocked, key.blocked);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @return A hash of the map's size and blocked cells, which tells apart
+     * the maps OpeningBook entries were searched on
+     */
+    long getMapHash() {
+        return mapHash;
+    }
+
+    int getXExtent() {
+        return xExtent;
+    }
+
+    int getYExtent() {
+        return yExtent;
+    }
+
+    /**
+     * @return The largest distance() can return, for cells with no path between them
+     */
+    int getUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * @return Whether reflecting the map across its main diagonal, swapping x
+     * and y, gives the same map: it is square and its resources lie
+     * symmetrically. Moves and distances are then the same in the reflection.
+     */
+    boolean isTransposable() {
+        return transposable;
+    }
+
+    /**
+     * @return Whether (x, y), which must be on the map, holds a resource
+     */
+    boolean isBlocked(int x, int y) {
+        int cell = y * xExtent + x;
+        return (blocked[cell >>> 6] & 1L << cell) != 0;
+    }
+
+    /**
+     * @return The number of steps (see isStep) from (x, y) onto open cells of the map
+     */
+    int openSteps(int x, int y) {
+        return openSteps[y * xExtent + x];
+    }
+
+    /**
+     * @return The number of the eight cells around (x, y) that are blocked or off the map
+     */
+    int blockedNeighbours(int x, int y) {
+        return blockedNeighbours[y * xExtent + x];
+    }
+
+    /**
+     * @return Whether units may move one step in direction d
+     */
+    static boolean isStep(Direction d) {
+        return d.xComponent() + d.yComponent() <= 1;
+    }
+
+    /**
+     * @return The number of moves a unit at (fromX, fromY) needs to get onto
+     * (toX, toY) around the resources, or getUnreachable() if it cannot
+     */
+    int distance(int fromX, int fromY, int toX, int toY) {
+        int target = toY * xExtent + toX;
+        short[] field = distances.get(target);
+        if (field == null) {
+            field = search(target);
+            // Another thread may have searched the same target; either result is the same
+            distances.set(target, field);
+        }
+        return field[fromY * xExtent + fromX];
+    }
+
+    /**
+     * Breadth-first search backwards from target: a cell is one move further
+     * than every cell it can step to.
+     */
+    private short[] search(int target) {
+        short[] field = new short[xExtent * yExtent];
+        Arrays.fill(field, (short) unreachable);
+        int[] queue = new int[field.length];
+        int head = 0;
+        int tail = 0;
+        field[target] = 0;
+        queue[tail++] = target;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % xExtent;
+            int y = cell / xExtent;
+            for (Direction d : Direction.values()) {
+                if (!isStep(d)) {
+                    continue;
+                }
+                int px = x - d.xComponent();
+                int py = y - d.yComponent();
+                if (px < 0 || py < 0 || px >= xExtent || py >= yExtent || isBlocked(px, py)) {
+                    continue;
+                }
+                int previous = py * xExtent + px;
+                if (field[previous] == unreachable) {
+                    field[previous] = (short) (field[cell] + 1);
+                    queue[tail++] = previous;
+                }
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,113 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a SEPIA State straight from one of the map files in data/ so that
+ * GameState can be exercised outside of a running episode (benchmarks, offline
+ * tools). Only what GameState reads is loaded: the map size, obstacles, unit
+ * positions and HP and the combat stats of the unit templates.
+ */
+final class MapLoader {
+
+    private MapLoader() {
+    }
+
+    /**
+     * @param mapFile Path to a map file such as data/Game2fv2a.xml
+     * @return A fresh State holding the units and obstacles of the map
+     */
+    static State loadState(String mapFile) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(mapFile));
+        Element root = doc.getDocumentElement();
+
+        State state = new State();
+        state.setSize(Integer.parseInt(root.getAttribute("xExtent")), Integer.parseInt(root.getAttribute("yExtent")));
+
+        for (Element player : children(root, "player")) {
+            int playerId = intChild(player, "ID");
+            state.addPlayer(playerId);
+
+            Map<Integer, UnitTemplate> templates = new HashMap<Integer, UnitTemplate>();
+            for (Element xmlTemplate : children(player, "template")) {
+                if (!xmlTemplate.getAttribute("xsi:type").equals("UnitTemplate")) {
+                    continue;
+                }
+                UnitTemplate template = new UnitTemplate(intChild(xmlTemplate, "ID"));
+                template.setName(textChild(xmlTemplate, "name"));
+                template.setPlayer(playerId);
+                template.setBaseHealth(intChild(xmlTemplate, "baseHealth"));
+                template.setBasicAttack(intChild(xmlTemplate, "baseAttack"));
+                template.setPiercingAttack(intChild(xmlTemplate, "piercingAttack"));
+                template.setRange(intChild(xmlTemplate, "range"));
+                template.setArmor(intChild(xmlTemplate, "armor"));
+                template.setSightRange(intChild(xmlTemplate, "sightRange"));
+                template.setCanMove(Boolean.parseBoolean(textChild(xmlTemplate, "canMove")));
+                template.setDurationMove(intChild(xmlTemplate, "durationMove"));
+                template.setDurationAttack(intChild(xmlTemplate, "durationAttack"));
+                state.addTemplate(template);
+                templates.put(template.ID, template);
+            }
+
+            for (Element xmlUnit : children(player, "unit")) {
+                Unit unit = new Unit(templates.get(intChild(xmlUnit, "templateID")), intChild(xmlUnit, "ID"));
+                unit.setHP(intChild(xmlUnit, "currentHealth"));
+                state.addUnit(unit, intChild(xmlUnit, "xPosition"), intChild(xmlUnit, "yPosition"));
+            }
+        }
+
+        for (Element xmlResource : children(root, "resourceNode")) {
+            state.addResource(new ResourceNode(
+                    ResourceNode.Type.valueOf(textChild(xmlResource, "type")),
+                    intChild(xmlResource, "xPosition"),
+                    intChild(xmlResource, "yPosition"),
+                    intChild(xmlResource, "amountRemaining"),
+                    intChild(xmlResource, "ID")));
+        }
+        return state;
+    }
+
+    /**
+     * @param mapFile Path to a map file such as data/Game2fv2a.xml
+     * @return A view of the map with nothing hidden, as the agents see it at turn 0
+     */
+    static State.StateView load(String mapFile) throws Exception {
+        return loadState(mapFile).getView(Agent.OBSERVER_ID);
+    }
+
+    private static Iterable<Element> children(Element parent, String tag) {
+        List<Element> ret = new ArrayList<Element>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node instanceof Element && node.getNodeName().equals(tag)) {
+                ret.add((Element) node);
+            }
+        }
+        return ret;
+    }
+
+    private static String textChild(Element parent, String tag) {
+        return children(parent, tag).iterator().next().getTextContent().trim();
+    }
+
+    private static int intChild(Element parent, String tag) {
+        return Integer.parseInt(textChild(parent, tag));
+    }
+}
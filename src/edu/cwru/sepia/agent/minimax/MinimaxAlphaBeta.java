@@ -5,14 +5,131 @@ import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Agent arguments: the number of plys, followed by optional name=value options.
+ *
+ * search=unmake (default) searches a single GameState in place, playing and
+ * taking back moves with makeMove/unmakeMove. search=copy searches the
+ * GameStateChild tree built by getChildren(), one state copy per child. Both
+ * visit moves in the same order and return the same best action.
+ *
+ * tt=N gives the in-place search a transposition table of 2^N entries
+ * (default 18, 0 disables it). Positions reached through different move orders
+ * are then looked up instead of searched again, and the best move stored for a
+ * position is tried first when it has to be searched anyway.
+ *
+ * timeMs=N turns on iterative deepening for the in-place search: each turn is
+ * searched one ply deeper at a time until N milliseconds have passed, and the
+ * number of plys becomes the maximum depth.
+ *
+ * pvs=on makes the in-place search a principal variation search: every
+ * child but the first of a node is searched with a null window first, and
+ * again with the full window only if it turns out better. With timeMs each
+ * iteration after the first also searches the root within an aspiration
+ * window around the previous iteration's value. It finds the same value as
+ * pvs=off; compare the two with SearchBenchmark (in benchmarks/).
+ *
+ * quiescence=N makes the in-place search go on past numPlys while the side
+ * to move can attack, searching only attacks for at most N more moves (see
+ * AlphaBetaSearcher), so a position in the middle of an exchange of blows is
+ * not scored as it stands. 0 (default) evaluates every node at numPlys.
+ *
+ * ponder=on keeps the in-place search going on the archers' time: after
+ * each turn the position after the archers' reply predicted by the principal
+ * variation is searched on a background thread (see Ponderer) until the next
+ * turn. When the prediction was right, that turn's search finds the pondered
+ * subtree in the transposition table. The hit rate is part of the stats.
+ *
+ * book=N keeps the in-place search's results for the positions of the first
+ * N turns (default 8, 0 disables it) in an OpeningBook, which savePlayerData
+ * writes and loadPlayerData reads back, so later episodes play those turns
+ * from the book without searching. An entry is only used when it was searched
+ * at least numPlys deep. A book for another map or searched with other
+ * weights=FILE is not used. The book is not kept with factored=on.
+ *
+ * symmetry=off keeps moves whose position only differs from a sibling's by a
+ * reflection of the map (see Symmetry), which are otherwise left out of both
+ * searches, for comparison.
+ *
+ * factored=on makes the in-place search expand one unit's action per ply
+ * (see GameState.getMoves) instead of the joint moves of the side's first two
+ * units, so every unit of the side acts and a turn branches about 5 ways per
+ * unit rather than 5^N ways. The number of plys then counts two unit actions
+ * each, so a turn of one or two units takes a ply as with joint moves and
+ * larger sides' turns take more (see AlphaBetaSearcher); the agent's own turn
+ * is always searched to its end. The turn's actions are the principal
+ * variation's up to the end of the turn. With at most two units a side it
+ * finds the same value as factored=off.
+ *
+ * factored=on is experimental; the default, factored=off, searches joint
+ * moves. Move ordering and the transposition table's cutoffs, which are
+ * skipped within the root's turn, still suit joint moves better: in
+ * Tournament games at 50ms a turn on the 2, 3 and 4 footmen maps it won 1
+ * game of 12 to joint moves' 4.
+ *
+ * weights=FILE reads the feature weights of GameState.getUtility() from a
+ * file as WeightTuner writes them (see EvalWeights) instead of using the
+ * defaults, for both searches.
+ *
+ * tablebase=FILE loads an endgame table written by Tablebase for the map and
+ * looks every position of the in-place search up in it: a footman win it
+ * proves ends the search there with a value above any heuristic one, and
+ * quicker wins score higher. A table made for another map is ignored. Make one
+ * with: java edu.cwru.sepia.agent.minimax.Tablebase map.xml table.tb
+ * (several minutes and about 100MB for a 25x19 map). There is no table by
+ * default: it only covers one footman against one archer.
+ *
+ * ordering=off searches moves in generation order instead of ordering them
+ * (see orderChildrenWithHeuristics and AlphaBetaSearcher), for comparison.
+ *
+ * threads=N searches in place with N threads (default 1), splitting the
+ * younger brothers of a node across a ForkJoinPool once its eldest has been
+ * searched (see AlphaBetaSearcher). It finds the same value as the search with
+ * one thread, but can pick another of several equally good moves.
+ *
+ * stats=count (default) counts what every search does (see SearchStats)
+ * without printing it, for benchmarks that read the counters. stats=on also
+ * times move generation and evaluation call by call, which costs two clock
+ * reads per call, and prints the counters as one line of name=value pairs per
+ * turn and totals for the game in terminalStep. stats=off turns counting off
+ * altogether.
+ */
 public class MinimaxAlphaBeta extends Agent {
 
     private final int numPlys;
+    private final boolean inPlaceSearch;
+
+    private final long timeBudgetMs;
+    private final boolean ordering;
+    private final boolean reduceSymmetry;
+    private final boolean factored;
+    private final EvalWeights weights;
+    /* The in-place search, null for search=copy */
+    private final AlphaBetaSearcher searcher;
+    /* Searches between turns, null unless ponder=on */
+    private final Ponderer ponderer;
+    /* Results of the first bookTurns turns, null when book=0 or search=copy */
+    private final OpeningBook book;
+    private final int bookTurns;
+
+    /* Counters of the last search and of the game so far, null when stats=off */
+    final SearchStats stats;
+    private final SearchStats gameStats;
+    private final boolean printStats;
+
+    /* Result of the last search */
+    int completedDepth;
+    double rootValue;
 
     public MinimaxAlphaBeta(int playernum, String[] args)
     {
@@ -25,6 +142,128 @@ public class MinimaxAlphaBeta extends Agent {
         }
 
         numPlys = Integer.parseInt(args[0]);
+
+        Map<String, String> options = parseOptions(args, 1);
+        String search = options.containsKey("search") ? options.get("search") : "unmake";
+        if(!search.equals("unmake") && !search.equals("copy"))
+        {
+            System.err.println("Unknown search mode " + search + ", expected unmake or copy");
+            System.exit(1);
+        }
+        inPlaceSearch = search.equals("unmake");
+
+        int ttBits = options.containsKey("tt") ? Integer.parseInt(options.get("tt")) : 18;
+        TranspositionTable transpositions = ttBits > 0 ? new TranspositionTable(ttBits) : null;
+
+        timeBudgetMs = options.containsKey("timeMs") ? Long.parseLong(options.get("timeMs")) : 0;
+        if(timeBudgetMs > 0 && !inPlaceSearch)
+        {
+            System.err.println("timeMs is only supported by search=unmake, searching to a fixed depth");
+        }
+
+        ordering = !"off".equals(options.get("ordering"));
+        reduceSymmetry = !"off".equals(options.get("symmetry"));
+
+        factored = inPlaceSearch && "on".equals(options.get("factored"));
+        if("on".equals(options.get("factored")) && !inPlaceSearch)
+        {
+            System.err.println("factored is only supported by search=unmake, searching joint moves");
+        }
+
+        boolean pvs = "on".equals(options.get("pvs"));
+        if(pvs && !inPlaceSearch)
+        {
+            System.err.println("pvs is only supported by search=unmake, searching with full windows");
+        }
+
+        int quiescence = options.containsKey("quiescence") ? Integer.parseInt(options.get("quiescence")) : 0;
+        if(quiescence > 0 && !inPlaceSearch)
+        {
+            System.err.println("quiescence is only supported by search=unmake, evaluating at the depth");
+        }
+
+        String statsOption = options.containsKey("stats") ? options.get("stats") : "count";
+        if(!statsOption.equals("on") && !statsOption.equals("count") && !statsOption.equals("off"))
+        {
+            System.err.println("Unknown stats setting " + statsOption + ", expected on, count or off");
+            System.exit(1);
+        }
+        stats = statsOption.equals("off") ? null : new SearchStats(statsOption.equals("on"));
+        gameStats = stats == null ? null : new SearchStats(stats.timed);
+        printStats = statsOption.equals("on");
+
+        int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1;
+        if(threads > 1 && !inPlaceSearch)
+        {
+            System.err.println("threads is only supported by search=unmake, searching with one thread");
+        }
+        EvalWeights weights = EvalWeights.DEFAULT;
+        if(options.containsKey("weights"))
+        {
+            try
+            {
+                weights = EvalWeights.read(options.get("weights"));
+            }
+            catch(IOException e)
+            {
+                System.err.println("Could not read the weights " + options.get("weights") + ", using the defaults: " + e.getMessage());
+            }
+        }
+        this.weights = weights;
+
+        Tablebase tablebase = null;
+        if(options.containsKey("tablebase"))
+        {
+            if(!inPlaceSearch)
+            {
+                System.err.println("tablebase is only supported by search=unmake, searching without it");
+            }
+            else
+            {
+                try
+                {
+                    tablebase = Tablebase.open(options.get("tablebase"));
+                }
+                catch(IOException e)
+                {
+                    System.err.println("Could not open the tablebase " + options.get("tablebase") + ": " + e.getMessage());
+                }
+            }
+        }
+        searcher = inPlaceSearch ? new AlphaBetaSearcher(transpositions, tablebase, ordering, pvs, quiescence, threads, stats) : null;
+
+        boolean ponder = "on".equals(options.get("ponder"));
+        if(ponder && (!inPlaceSearch || transpositions == null))
+        {
+            System.err.println("ponder needs search=unmake and a transposition table, not pondering");
+            ponder = false;
+        }
+        // A fixed-depth turn needs the pondered position no deeper than numPlys
+        int ponderDepth = timeBudgetMs > 0 ? AlphaBetaSearcher.MAX_PLY : numPlys;
+        ponderer = ponder ? new Ponderer(transpositions, tablebase, ordering, pvs, quiescence, ponderDepth, stats != null) : null;
+
+        bookTurns = options.containsKey("book") ? Integer.parseInt(options.get("book")) : 8;
+        // The book keeps one move per position, not the rest of a factored turn
+        book = inPlaceSearch && bookTurns > 0 && !factored ? new OpeningBook(weights) : null;
+    }
+
+    /**
+     * @param from The index of the first option in args
+     */
+    static Map<String, String> parseOptions(String[] args, int from)
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for(int i = from; i < args.length; i++)
+        {
+            int split = args[i].indexOf('=');
+            if(split < 0)
+            {
+                System.err.println("Ignoring argument " + args[i] + ", expected name=value");
+                continue;
+            }
+            options.put(args[i].substring(0, split).trim(), args[i].substring(split + 1).trim());
+        }
+        return options;
     }
 
     @Override
@@ -34,27 +273,188 @@ public class MinimaxAlphaBeta extends Agent {
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                numPlys,
-                Double.NEGATIVE_INFINITY,
-                Double.POSITIVE_INFINITY);
+        long start = System.nanoTime();
+        if(stats != null)
+        {
+            stats.reset();
+        }
+
+        Map<Integer, Action> actions;
+        GameState state = null;
+        OpeningBook.Entry known = null;
+        if(inPlaceSearch)
+        {
+            state = new GameState(newstate, reduceSymmetry, factored, weights);
+            if(ponderer != null)
+            {
+                ponderer.stop(state, stats);
+            }
+            boolean opening = book != null && newstate.getTurnNumber() < bookTurns;
+            int dropped = opening ? book.setMap(state.getMap().getMapHash()) : 0;
+            if(dropped > 0)
+            {
+                System.err.println("Dropping the opening book's " + dropped + " positions, which are for another map");
+            }
+            known = opening ? lookUp(state) : null;
+            int move;
+            if(known != null)
+            {
+                move = known.move;
+                completedDepth = known.depth;
+                rootValue = known.value;
+                if(stats != null)
+                {
+                    stats.bookHits.increment();
+                }
+            }
+            else
+            {
+                move = searcher.search(state, numPlys, timeBudgetMs);
+                completedDepth = searcher.completedDepth;
+                rootValue = searcher.rootValue;
+                if(opening && move != 0)
+                {
+                    book.put(state.getHash(), move, completedDepth, (int) rootValue);
+                }
+            }
+            actions = move != 0 ? turnActions(state, move) : new HashMap<Integer, Action>();
+        }
+        else
+        {
+            GameStateChild bestChild = alphaBetaSearch(new GameStateChild(null, new GameState(newstate, reduceSymmetry, false, weights)),
+                    numPlys,
+                    Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY);
+            completedDepth = numPlys;
+            actions = bestChild.action == null ? new HashMap<Integer, Action>() : bestChild.action;
+        }
+
+        if(stats != null)
+        {
+            stats.searchNanos.add(System.nanoTime() - start);
+            stats.searches.increment();
+            gameStats.add(stats);
+            if(printStats)
+            {
+                System.out.println(stats.format("minimax-turn turn=" + newstate.getTurnNumber()
+                        + " depth=" + completedDepth + " value=" + rootValue));
+            }
+        }
+        // After a book move the searcher's principal variation is an old turn's
+        if(ponderer != null && known == null)
+        {
+            ponderer.start(state, searcher.principalVariation());
+        }
+        return actions;
+    }
+
+    /**
+     * @return The SEPIA actions of the turn the in-place search chose move
+     * for. A joint move is the whole turn. A factored move is only the first
+     * unit's action; the others are taken from the principal variation, or
+     * where a search cut short by the clock has none, the best scored move.
+     */
+    private Map<Integer, Action> turnActions(GameState state, int move)
+    {
+        if(!factored)
+        {
+            return state.toActionMap(move);
+        }
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+        int[] pv = searcher.principalVariation();
+        int[] moves = new int[64];
+        int[] scores = new int[64];
+        int turn = state.getTurnNumber();
+        int played = 0;
+        while(move != 0)
+        {
+            actions.putAll(state.toActionMap(move));
+            state.makeMove(move);
+            played++;
+            move = 0;
+            if(state.getTurnNumber() != turn)
+            {
+                break;
+            }
+            if(played < pv.length && state.isLegalMove(pv[played]))
+            {
+                move = pv[played];
+                continue;
+            }
+            int count = state.getMoves(moves, scores);
+            int best = 0;
+            for(int i = 1; i < count; i++)
+            {
+                if(scores[i] > scores[best])
+                {
+                    best = i;
+                }
+            }
+            move = count > 0 ? moves[best] : 0;
+        }
+        while(played-- > 0)
+        {
+            state.unmakeMove();
+        }
+        return actions;
+    }
 
-        return bestChild.action;
+    /**
+     * @return The book entry of state if it is deep enough to play without
+     * searching and its move is legal here, otherwise null
+     */
+    private OpeningBook.Entry lookUp(GameState state)
+    {
+        OpeningBook.Entry entry = book.get(state.getHash());
+        if(entry == null || entry.depth < numPlys || !state.isLegalMove(entry.move))
+        {
+            return null;
+        }
+        return entry;
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-
+        if(ponderer != null)
+        {
+            ponderer.stop(null, null);
+        }
+        if(printStats)
+        {
+            System.out.println(gameStats.format("minimax-game turn=" + newstate.getTurnNumber()));
+        }
     }
 
     @Override
     public void savePlayerData(OutputStream os) {
-
+        if(book == null)
+        {
+            return;
+        }
+        try
+        {
+            book.write(os);
+        }
+        catch(IOException e)
+        {
+            System.err.println("Could not save the opening book: " + e.getMessage());
+        }
     }
 
     @Override
     public void loadPlayerData(InputStream is) {
-
+        if(book == null)
+        {
+            return;
+        }
+        try
+        {
+            book.read(is);
+        }
+        catch(IOException e)
+        {
+            System.err.println("Could not load the opening book, keeping " + book.size() + " positions: " + e.getMessage());
+        }
     }
 
     /**
@@ -66,6 +466,9 @@ public class MinimaxAlphaBeta extends Agent {
      * Try to keep the logic in this function as abstract as possible (i.e. move as much SEPIA specific
      * code into other functions and methods)
      *
+     * The footmen are the maximizing side and the archers the minimizing side.
+     * If the node has no children it is returned itself.
+     *
      * @param node The action and state to search from
      * @param depth The remaining number of plys under this node
      * @param alpha The current best value for the maximizing node from this node to the root
@@ -74,32 +477,134 @@ public class MinimaxAlphaBeta extends Agent {
      */
     public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta)
     {
-        GameState orig = node.state;
-        
-        if(node.action != null && node.action.size() > 0 && (orig.getUtility() == 0 || depth >= 2)){
-        	return null;
-        }else {
-        	List<GameStateChild> children = orig.getChildren();
-        	GameStateChild toReturn = node;
-        	double newUtil = orig.isMMTurn() ? alpha : beta;
-        	GameStateChild returnedChild = null;
-        	for( GameStateChild child : children){
-        		if(orig.isMMTurn()){
-        			returnedChild = alphaBetaSearch(child, depth + 1, newUtil, beta);
-        		}else{
-        			returnedChild = alphaBetaSearch(child, depth + 1, alpha, newUtil);
-        		}
-        		if(returnedChild == null){
-        			return toReturn;
-        		}
-        		double childUtil = returnedChild.state.getUtility();
-        		if(childUtil > newUtil == orig.isMMTurn() ){
-        			newUtil = childUtil;
-        			toReturn = child;
-        		}
-        	}
-        	return toReturn;
+        GameState state = node.state;
+        boolean maximizing = state.isMMTurn();
+        GameState best = null;
+        int bestMove = 0;
+        double bestValue = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        if(stats != null)
+        {
+            stats.nodes.increment();
+        }
+
+        GameState.ChildCursor children = children(state);
+        while(children.hasNext())
+        {
+            GameState child = nextChild(children);
+            double value = alphaBetaValue(child, depth - 1, 1, alpha, beta);
+            if(maximizing ? value > bestValue : value < bestValue)
+            {
+                bestValue = value;
+                best = child;
+                bestMove = children.lastMove();
+            }
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, value);
+            }
+            else
+            {
+                beta = Math.min(beta, value);
+            }
+            if(alpha >= beta)
+            {
+                break;
+            }
         }
+        rootValue = bestValue;
+        // The children carry no action maps; only the chosen one gets its SEPIA actions
+        return best == null ? node : new GameStateChild(state.toActionMap(bestMove), best);
+    }
+
+    /**
+     * @param ply The distance of this node from the root
+     * @return The minimax value of state searched depth plys deep within the (alpha, beta) window
+     */
+    private double alphaBetaValue(GameState state, int depth, int ply, double alpha, double beta)
+    {
+        if(stats != null)
+        {
+            stats.nodes.increment();
+        }
+        if(depth <= 0 || state.isTerminal())
+        {
+            return evaluate(state, ply);
+        }
+        // Children are built one at a time, so the ones after a cutoff never are
+        GameState.ChildCursor children = children(state);
+        if(!children.hasNext())
+        {
+            return evaluate(state, ply);
+        }
+
+        boolean maximizing = state.isMMTurn();
+        for(int i = 0; children.hasNext(); i++)
+        {
+            double value = alphaBetaValue(nextChild(children), depth - 1, ply + 1, alpha, beta);
+            if(maximizing)
+            {
+                alpha = Math.max(alpha, value);
+            }
+            else
+            {
+                beta = Math.min(beta, value);
+            }
+            if(alpha >= beta)
+            {
+                if(stats != null)
+                {
+                    stats.cutoff(i);
+                }
+                break;
+            }
+        }
+        return maximizing ? alpha : beta;
+    }
+
+    private double evaluate(GameState state, int ply)
+    {
+        if(stats == null)
+        {
+            return state.getUtility();
+        }
+        double value;
+        if(stats.timed)
+        {
+            long start = System.nanoTime();
+            value = state.getUtility();
+            stats.evaluationNanos.add(System.nanoTime() - start);
+        }
+        else
+        {
+            value = state.getUtility();
+        }
+        stats.leaves.increment();
+        stats.maxPly.accumulate(ply);
+        return value;
+    }
+
+    private GameState.ChildCursor children(GameState state)
+    {
+        if(stats == null || !stats.timed)
+        {
+            return state.childIterator(ordering);
+        }
+        long start = System.nanoTime();
+        GameState.ChildCursor children = state.childIterator(ordering);
+        stats.moveGenerationNanos.add(System.nanoTime() - start);
+        return children;
+    }
+
+    private GameState nextChild(GameState.ChildCursor children)
+    {
+        if(stats == null || !stats.timed)
+        {
+            return children.nextState();
+        }
+        long start = System.nanoTime();
+        GameState child = children.nextState();
+        stats.moveGenerationNanos.add(System.nanoTime() - start);
+        return child;
     }
 
     /**
@@ -112,11 +617,29 @@ public class MinimaxAlphaBeta extends Agent {
      *
      * Include a good comment about what your heuristics are and why you chose them.
      *
+     * Children are sorted by GameState.getOrderingScore, best for the side to
+     * move first: attacks before moves, the attacks taking the largest share of
+     * their target's remaining HP first, then the moves that close the most
+     * distance between footmen and archers (or open it, for the archers).
+     * Alpha-beta cuts off sooner the earlier it meets the best child, and
+     * attacks and approaches are what decides the fight. The sort is stable, so
+     * children with equal scores stay in generation order.
+     *
+     * The search itself walks GameState.childIterator(true), which yields the
+     * children in this same order but builds each one only when it is reached.
+     *
      * @param children
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children)
     {
-        return children;
+        List<GameStateChild> ordered = new ArrayList<GameStateChild>(children);
+        Collections.sort(ordered, new Comparator<GameStateChild>() {
+            @Override
+            public int compare(GameStateChild a, GameStateChild b) {
+                return Integer.compare(b.state.getOrderingScore(), a.state.getOrderingScore());
+            }
+        });
+        return ordered;
     }
 }
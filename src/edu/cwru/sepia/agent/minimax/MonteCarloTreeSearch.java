@@ -0,0 +1,268 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An alternative to MinimaxAlphaBeta for the footmen, searching the same
+ * GameState model by Monte Carlo tree search (see UctSearcher) instead of
+ * alpha-beta, so its cost per turn is set by a budget rather than by the
+ * branching factor. Compare the two with Tournament -agent mcts.
+ *
+ * Agent arguments are optional name=value options:
+ *
+ * timeMs=N stops each turn's search after N milliseconds (default 200).
+ * playouts=N stops it after N playouts (default 0, no limit); with both, the
+ * first limit reached ends the search, and timeMs=0 leaves only the playout
+ * limit, for searches that play the same whatever the machine's speed.
+ *
+ * threads=N searches with N threads (default 1), root parallel: each thread
+ * grows a tree of its own from the same position with its own random
+ * numbers, and the visits of the root's moves are added up over the trees.
+ * A playout limit is shared out between the threads.
+ *
+ * rollout=N plays at most N moves per rollout (default 16), c=X sets the
+ * UCB1 exploration constant (default 1.0) and seed=N the seed of the first
+ * thread's random numbers (default 0, the others taking the next ones).
+ *
+ * symmetry=off and stats=on|count|off are as for MinimaxAlphaBeta; the
+ * stats count the playouts and the tree and rollout moves as nodes.
+ *
+ * The move with the most root visits is played. Its mean playout result is
+ * kept as rootValue, between 0 and 1 for the side to move. If the time runs
+ * out before any playout, the best scored move is played (see
+ * GameState.scoreAction), so the footmen always act while they can.
+ */
+public class MonteCarloTreeSearch extends Agent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long timeBudgetMs;
+    private final int maxPlayouts;
+    private final boolean reduceSymmetry;
+    /* One searcher per thread; the first runs on the agent's thread */
+    private final UctSearcher[] searchers;
+    /* Runs the other searchers, null with one thread or between episodes */
+    private ExecutorService pool;
+
+    /* Counters of the last search and of the game so far, null when stats=off */
+    final SearchStats stats;
+    private final SearchStats gameStats;
+    private final boolean printStats;
+
+    /* Result of the last search */
+    int playouts;
+    double rootValue;
+
+    public MonteCarloTreeSearch(int playernum, String[] args)
+    {
+        super(playernum);
+
+        Map<String, String> options = MinimaxAlphaBeta.parseOptions(args, 0);
+        timeBudgetMs = options.containsKey("timeMs") ? Long.parseLong(options.get("timeMs")) : 200;
+        maxPlayouts = options.containsKey("playouts") ? Integer.parseInt(options.get("playouts")) : 0;
+        if(timeBudgetMs <= 0 && maxPlayouts <= 0)
+        {
+            System.err.println("You must give timeMs or playouts a positive limit");
+            System.exit(1);
+        }
+        reduceSymmetry = !"off".equals(options.get("symmetry"));
+
+        String statsOption = options.containsKey("stats") ? options.get("stats") : "count";
+        if(!statsOption.equals("on") && !statsOption.equals("count") && !statsOption.equals("off"))
+        {
+            System.err.println("Unknown stats setting " + statsOption + ", expected on, count or off");
+            System.exit(1);
+        }
+        stats = statsOption.equals("off") ? null : new SearchStats(statsOption.equals("on"));
+        gameStats = stats == null ? null : new SearchStats(stats.timed);
+        printStats = statsOption.equals("on");
+
+        int threads = Math.max(1, options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1);
+        int rolloutDepth = options.containsKey("rollout") ? Integer.parseInt(options.get("rollout")) : 16;
+        double exploration = options.containsKey("c") ? Double.parseDouble(options.get("c")) : 1.0;
+        long seed = options.containsKey("seed") ? Long.parseLong(options.get("seed")) : 0;
+        searchers = new UctSearcher[threads];
+        for(int i = 0; i < threads; i++)
+        {
+            searchers[i] = new UctSearcher(exploration, rolloutDepth, seed + i, stats);
+        }
+    }
+
+    @Override
+    public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        return middleStep(newstate, statehistory);
+    }
+
+    @Override
+    public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        long start = System.nanoTime();
+        if(stats != null)
+        {
+            stats.reset();
+        }
+
+        GameState state = new GameState(newstate, reduceSymmetry, false);
+        int move = search(state, timeBudgetMs > 0 ? start + timeBudgetMs * 1000000L : Long.MAX_VALUE);
+        Map<Integer, Action> actions = move != 0 ? state.toActionMap(move) : new HashMap<Integer, Action>();
+
+        if(stats != null)
+        {
+            stats.searchNanos.add(System.nanoTime() - start);
+            stats.searches.increment();
+            gameStats.add(stats);
+            if(printStats)
+            {
+                System.out.println(stats.format("mcts-turn turn=" + newstate.getTurnNumber() + " value=" + rootValue));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Grows a tree per searcher and picks the root move they visited most in total.
+     *
+     * @return The move, or 0 if there is none
+     */
+    private int search(final GameState state, final long deadline)
+    {
+        List<Future<?>> running = new ArrayList<Future<?>>();
+        if(searchers.length > 1 && pool == null)
+        {
+            pool = Executors.newFixedThreadPool(searchers.length - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mcts-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        for(int i = 1; i < searchers.length; i++)
+        {
+            final UctSearcher searcher = searchers[i];
+            final GameState copy = state.copy();
+            final int share = playoutShare(i);
+            running.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    searcher.search(copy, share, deadline);
+                }
+            }));
+        }
+        searchers[0].search(state, playoutShare(0), deadline);
+        // The trees are read below, so wait for every thread even when interrupted
+        boolean interrupted = false;
+        for(Future<?> future : running)
+        {
+            while(true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch(InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch(ExecutionException e)
+                {
+                    throw new IllegalStateException("Search thread failed", e.getCause());
+                }
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        // Every tree's root has the same moves in the same order, as getMoves() is deterministic
+        UctSearcher.Node first = searchers[0].root();
+        playouts = 0;
+        for(UctSearcher searcher : searchers)
+        {
+            playouts += searcher.root().visits;
+        }
+        if(first.moves == null || first.moves.length == 0)
+        {
+            rootValue = 0;
+            return 0;
+        }
+        int count = first.moves.length;
+        int[] visits = new int[count];
+        double[] rewards = new double[count];
+        for(UctSearcher searcher : searchers)
+        {
+            UctSearcher.Node root = searcher.root();
+            for(int i = 0; root.children != null && i < root.expanded; i++)
+            {
+                visits[i] += root.children[i].visits;
+                rewards[i] += root.children[i].reward;
+            }
+        }
+        // With no visits at all this is the first move, the best scored one (see UctSearcher.expandMoves)
+        int best = 0;
+        for(int i = 1; i < count; i++)
+        {
+            if(visits[i] > visits[best])
+            {
+                best = i;
+            }
+        }
+        rootValue = visits[best] == 0 ? 0 : rewards[best] / visits[best];
+        return first.moves[best];
+    }
+
+    /**
+     * @return The playout limit of thread i, 0 for none
+     */
+    private int playoutShare(int i)
+    {
+        if(maxPlayouts <= 0)
+        {
+            return 0;
+        }
+        int share = maxPlayouts / searchers.length + (i < maxPlayouts % searchers.length ? 1 : 0);
+        // A thread left with no playouts still plays one, as 0 would mean no limit
+        return Math.max(1, share);
+    }
+
+    @Override
+    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+        // The next episode, if there is one, starts a pool of its own
+        if(pool != null)
+        {
+            pool.shutdown();
+            pool = null;
+        }
+        if(printStats)
+        {
+            System.out.println(gameStats.format("mcts-game turn=" + newstate.getTurnNumber()));
+        }
+    }
+
+    @Override
+    public void savePlayerData(OutputStream os) {
+
+    }
+
+    @Override
+    public void loadPlayerData(InputStream is) {
+
+    }
+}
@@ -0,0 +1,160 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search results for the first turns of a game, kept across episodes through
+ * the agent's savePlayerData/loadPlayerData. Positions are keyed by their
+ * GameState Zobrist hash, which is the same for the same position in every
+ * episode, and map to the best move found, the depth it was searched to and
+ * the root value.
+ *
+ * The Zobrist hash leaves out the map and the evaluation, so a book only
+ * holds positions of one map (see MapLayer.getMapHash) searched with one set
+ * of weights. read() refuses a book written with other weights, or for
+ * another map than the entries already held; a book read before the map is
+ * known is dropped by setMap() if it turns out to be for another one.
+ *
+ * The stream holds MAGIC, VERSION, the map hash (8 bytes), the number of
+ * weights and the weights (4 each) and the number of entries, then per entry
+ * the hash (8), the packed move (4), the depth (1) and the value (4), all
+ * big-endian as DataOutputStream writes them.
+ */
+final class OpeningBook {
+
+    private static final int MAGIC = 0x4D4D424B;
+    private static final int VERSION = 2;
+
+    static final class Entry {
+        final int move;
+        final int depth;
+        final int value;
+
+        Entry(int move, int depth, int value) {
+            this.move = move;
+            this.depth = depth;
+            this.value = value;
+        }
+    }
+
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+    private final int[] weights;
+    /* Map the entries are for, fixed by setMap() */
+    private long mapHash;
+    private boolean mapSet;
+
+    /**
+     * @param weights The weights of the evaluation the book's results are searched with
+     */
+    OpeningBook(EvalWeights weights) {
+        this.weights = weights.toArray();
+    }
+
+    /**
+     * Fixes the map the book is for, at the first call. Entries read for
+     * another map are dropped.
+     *
+     * @return The number of entries dropped
+     */
+    int setMap(long mapHash) {
+        if (mapSet) {
+            return 0;
+        }
+        mapSet = true;
+        int dropped = 0;
+        if (this.mapHash != mapHash) {
+            dropped = entries.size();
+            entries.clear();
+            this.mapHash = mapHash;
+        }
+        return dropped;
+    }
+
+    /**
+     * @return The entry of the position, or null if it has none
+     */
+    Entry get(long hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Records a search result, unless the position already has one searched deeper.
+     */
+    void put(long hash, int move, int depth, int value) {
+        Entry old = entries.get(hash);
+        if (old == null || old.depth <= depth) {
+            entries.put(hash, new Entry(move, depth, value));
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the book to out, leaving the stream open.
+     */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(mapHash);
+        data.writeInt(weights.length);
+        for (int weight : weights) {
+            data.writeInt(weight);
+        }
+        data.writeInt(entries.size());
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            data.writeLong(entry.getKey());
+            data.writeInt(entry.getValue().move);
+            data.writeByte(entry.getValue().depth);
+            data.writeInt(entry.getValue().value);
+        }
+        data.flush();
+    }
+
+    /**
+     * Adds the entries written by write() to this book, keeping the deeper
+     * result where both have the same position.
+     *
+     * @throws IOException If in does not hold a book of this version, or
+     * holds one for another map or searched with other weights; the book is
+     * then left as it was
+     */
+    void read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an opening book");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported opening book version " + version);
+        }
+        long bookMap = data.readLong();
+        int[] bookWeights = new int[data.readInt()];
+        for (int i = 0; i < bookWeights.length; i++) {
+            bookWeights[i] = data.readInt();
+        }
+        if (!Arrays.equals(bookWeights, weights)) {
+            throw new IOException("The book was searched with other weights: " + Arrays.toString(bookWeights));
+        }
+        if ((mapSet || !entries.isEmpty()) && bookMap != mapHash) {
+            throw new IOException("The book is for another map");
+        }
+        mapHash = bookMap;
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            long hash = data.readLong();
+            int move = data.readInt();
+            int depth = data.readUnsignedByte();
+            put(hash, move, depth, data.readInt());
+        }
+    }
+}
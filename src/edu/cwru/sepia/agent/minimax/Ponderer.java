@@ -0,0 +1,130 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Searches on the opponent's time. After a turn's search the agent hands its
+ * position and principal variation to start(), which plays the agent's move
+ * and the archers' predicted reply on a copy of the position and searches the
+ * result on a background thread until the next turn calls stop(). The
+ * transposition table is shared with the agent's own searcher, so when the
+ * archers did play the predicted reply the next search finds the pondered
+ * subtree in it. When they did not, the pondered entries are simply left to
+ * be replaced, as entries of an earlier search are replaced first.
+ *
+ * The pondering searcher always searches with one thread, whatever the
+ * agent's own searcher uses.
+ */
+final class Ponderer
+{
+    /* Counts the pondering searches, kept apart from the counts of the agent's turns */
+    private final SearchStats ponderStats;
+    private final AlphaBetaSearcher searcher;
+    private final int maxDepth;
+
+    private Thread thread;
+    /* Hash of the position being pondered */
+    private long predictedHash;
+
+    /**
+     * @param maxDepth The depth pondering stops at if the next turn has not come yet
+     * @param stats Whether to count the pondering searches' nodes
+     */
+    Ponderer(TranspositionTable transpositions, Tablebase tablebase, boolean ordering, boolean pvs, int quiescence,
+             int maxDepth, boolean stats)
+    {
+        this.ponderStats = stats ? new SearchStats() : null;
+        this.searcher = new AlphaBetaSearcher(transpositions, tablebase, ordering, pvs, quiescence, 1, ponderStats);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Starts pondering the position after the agent's move and the archers'
+     * predicted reply, the moves of pv up to the end of the archers' turn:
+     * two joint moves, or one factored move per unit. Does nothing when the
+     * principal variation does not predict the whole reply.
+     *
+     * Both moves happen within one SEPIA turn, so the predicted position is
+     * numbered state's turn plus one, as the next turn's GameState built from
+     * SEPIA's view will be, which also gives it that turn's side to move.
+     *
+     * @param state The position pv starts from; it is not changed
+     */
+    void start(GameState state, int[] pv)
+    {
+        GameState played = state.copy();
+        int replied = state.getTurnNumber() + 2;
+        for(int i = 0; played.getTurnNumber() < replied; i++)
+        {
+            if(i == pv.length)
+            {
+                return;
+            }
+            played.makeMove(pv[i]);
+        }
+        final GameState predicted = played.atTurn(state.getTurnNumber() + 1);
+        predictedHash = predicted.getHash();
+
+        searcher.clearStop();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                searcher.ponder(predicted, maxDepth);
+            }
+        }, "minimax-ponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops pondering and waits for the thread to finish, so the shared
+     * transposition table is the agent's again. Counts the ponder in stats.
+     *
+     * @param actual The position the next turn starts from, or null at the end of the game
+     * @param stats The counters of the next turn, or null for none
+     * @return Whether actual is the position that was pondered
+     */
+    boolean stop(GameState actual, SearchStats stats)
+    {
+        if(thread == null)
+        {
+            return false;
+        }
+        searcher.requestStop();
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                thread.join();
+                break;
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+
+        boolean hit = actual != null && actual.getHash() == predictedHash;
+        if(stats != null)
+        {
+            stats.ponders.increment();
+            if(hit)
+            {
+                stats.ponderHits.increment();
+            }
+            if(ponderStats != null)
+            {
+                stats.ponderNodes.add(ponderStats.nodes.sum());
+            }
+        }
+        if(ponderStats != null)
+        {
+            ponderStats.reset();
+        }
+        return hit;
+    }
+}
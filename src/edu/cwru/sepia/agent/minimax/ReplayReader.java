@@ -0,0 +1,287 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.util.Direction;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Walks a saved episode (the history.xml and initstate.xml SEPIA writes per
+ * episode) round by round without loading the history into memory. After
+ * next() the reader holds the position at the start of the round and the
+ * primitive actions completed during it; the round's damage and deaths are
+ * applied to the position by the following next().
+ *
+ * The observer's history lists deaths, damage and executed primitives in
+ * separate sections, each ordered by round, so the reader keeps one StAX
+ * cursor per section on the file and advances them together. Memory stays at
+ * one round of events per section however long the episode is. The initial
+ * state is small and read with MapLoader.
+ */
+final class ReplayReader implements Closeable {
+
+    static final int MOVE = 0;
+    static final int ATTACK = 1;
+    /** Any other primitive; it does not change the position as GameState sees it */
+    static final int OTHER = 2;
+
+    private final State state;
+    private final Section deaths;
+    private final Section damage;
+    private final Section actions;
+
+    private int round = -1;
+    /* The events of the current round, as packed records */
+    private int actionCount;
+    private int[] actionUnits = new int[16];
+    private int[] actionKinds = new int[16];
+    private int[] actionArgs = new int[16];
+
+    ReplayReader(String historyFile, String initStateFile) throws Exception {
+        state = MapLoader.loadState(initStateFile);
+        deaths = new Section(historyFile, "eventLogger", "deathLogList", "deathLog");
+        damage = new Section(historyFile, "eventLogger", "damageLogList", "damageLog");
+        actions = new Section(historyFile, "primitiveFeedback", "actionResultList", "actionResultEntry");
+    }
+
+    /**
+     * Applies the current round's events to the position and reads the next round.
+     *
+     * @return Whether there is another round
+     */
+    boolean next() throws XMLStreamException {
+        if (round >= 0) {
+            applyRound();
+        }
+        int nextRound = Integer.MAX_VALUE;
+        for (Section section : new Section[] { deaths, damage, actions }) {
+            if (section.peekRound() >= 0) {
+                nextRound = Math.min(nextRound, section.peekRound());
+            }
+        }
+        if (nextRound == Integer.MAX_VALUE) {
+            return false;
+        }
+        round = nextRound;
+
+        actionCount = 0;
+        while (actions.nextEntry(round)) {
+            if (!"COMPLETED".equals(actions.field("feedback"))) {
+                continue;
+            }
+            String type = actions.field("actionType");
+            int kind = "PRIMITIVEMOVE".equals(type) ? MOVE : "PRIMITIVEATTACK".equals(type) ? ATTACK : OTHER;
+            int arg = kind == MOVE ? Direction.valueOf(actions.field("direction")).ordinal()
+                    : kind == ATTACK ? Integer.parseInt(actions.field("targetId")) : 0;
+            addAction(Integer.parseInt(actions.field("unitId")), kind, arg);
+        }
+        return true;
+    }
+
+    private void addAction(int unit, int kind, int arg) {
+        if (actionCount == actionUnits.length) {
+            actionUnits = Arrays.copyOf(actionUnits, actionCount * 2);
+            actionKinds = Arrays.copyOf(actionKinds, actionCount * 2);
+            actionArgs = Arrays.copyOf(actionArgs, actionCount * 2);
+        }
+        actionUnits[actionCount] = unit;
+        actionKinds[actionCount] = kind;
+        actionArgs[actionCount++] = arg;
+    }
+
+    /**
+     * Moves the units that moved this round, then takes off the damage and
+     * removes the dead. A UnitView copies its unit, so a changed unit's view
+     * has to be dropped for view() to see the change.
+     */
+    private void applyRound() throws XMLStreamException {
+        for (int i = 0; i < actionCount; i++) {
+            Unit unit = state.getUnit(actionUnits[i]);
+            if (actionKinds[i] == MOVE && unit != null) {
+                state.moveUnit(unit, Direction.values()[actionArgs[i]]);
+                unit.deprecateOldView();
+            }
+        }
+        while (damage.nextEntry(round)) {
+            Unit defender = state.getUnit(Integer.parseInt(damage.field("defenderID")));
+            if (defender != null) {
+                defender.setHP(defender.getCurrentHealth() - Integer.parseInt(damage.field("damage")));
+                defender.deprecateOldView();
+            }
+        }
+        while (deaths.nextEntry(round)) {
+            int id = Integer.parseInt(deaths.field("deadUnitID"));
+            if (state.getUnit(id) != null) {
+                state.removeUnit(id);
+            }
+        }
+    }
+
+    int round() {
+        return round;
+    }
+
+    /**
+     * @return The position at the start of the current round, as the observer sees it
+     */
+    State.StateView view() {
+        return state.getView(Agent.OBSERVER_ID);
+    }
+
+    /**
+     * @return The position at the start of the current round as a new GameState
+     */
+    GameState snapshot() {
+        return new GameState(view());
+    }
+
+    /** @return The number of primitive actions completed in the current round */
+    int actionCount() {
+        return actionCount;
+    }
+
+    int actionUnit(int i) {
+        return actionUnits[i];
+    }
+
+    /** @return MOVE, ATTACK or OTHER */
+    int actionKind(int i) {
+        return actionKinds[i];
+    }
+
+    /** @return The Direction ordinal of a move, the target unit id of an attack */
+    int actionArg(int i) {
+        return actionArgs[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        deaths.close();
+        damage.close();
+        actions.close();
+    }
+
+    /**
+     * A cursor over the round lists of one section of the observer's history,
+     * such as its deathLogList elements. An entry is read into a map from
+     * the names of its leaf elements to their text.
+     */
+    private static final class Section implements Closeable {
+        private final InputStream in;
+        private final XMLStreamReader xml;
+        private final String section;
+        private final String list;
+        private final String entry;
+        private final Map<String, String> fields = new HashMap<String, String>();
+        /* Round of the list the cursor is in, or -1 once the section has ended */
+        private int listRound = -2;
+
+        Section(String file, String section, String list, String entry) throws IOException, XMLStreamException {
+            this.in = new BufferedInputStream(new FileInputStream(file));
+            this.xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            this.section = section;
+            this.list = list;
+            this.entry = entry;
+            // The players' histories come first and repeat the observer's; skip them
+            if (!skipTo("observerHistory", null) || !skipTo(section, "observerHistory")) {
+                listRound = -1;
+            }
+        }
+
+        /**
+         * @return The round of the next list, or -1 if the section has no more
+         */
+        int peekRound() throws XMLStreamException {
+            if (listRound == -2) {
+                listRound = skipTo(list, section) && skipTo("roundNumber", list)
+                        ? Integer.parseInt(xml.getElementText().trim()) : -1;
+            }
+            return listRound;
+        }
+
+        /**
+         * Reads the next entry of the given round into the fields.
+         *
+         * @return Whether there was one; false once the round's list is used up or
+         * the next list is of a later round
+         */
+        boolean nextEntry(int round) throws XMLStreamException {
+            if (peekRound() != round) {
+                return false;
+            }
+            if (!skipTo(entry, list)) {
+                // The list has ended; the next peekRound() moves on to the next one
+                listRound = -2;
+                return false;
+            }
+            fields.clear();
+            int depth = 1;
+            String leaf = null;
+            StringBuilder text = new StringBuilder();
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    leaf = xml.getLocalName();
+                    text.setLength(0);
+                } else if (event == XMLStreamConstants.CHARACTERS) {
+                    text.append(xml.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if (leaf != null && leaf.equals(xml.getLocalName())) {
+                        fields.put(leaf, text.toString().trim());
+                    }
+                    leaf = null;
+                }
+            }
+            return true;
+        }
+
+        String field(String name) {
+            return fields.get(name);
+        }
+
+        /**
+         * Moves to the next start of an element named name, staying inside the
+         * element named parent (or the whole document if parent is null).
+         *
+         * @return Whether it was found before parent ended
+         */
+        private boolean skipTo(String name, String parent) throws XMLStreamException {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals(name)) {
+                    return true;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals(parent)) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A compact binary trace of a saved episode, written from a ReplayReader so
+ * replays can be stepped through or mined for test positions without going
+ * back through the XML.
+ *
+ * The trace holds MAGIC, VERSION and the map's extents, then one record per
+ * round: the round number, the living units (id, player, x, y, HP) at the
+ * start of the round, and the primitive actions completed during it (unit
+ * id, ReplayReader action kind, direction ordinal or target id). A round
+ * number of -1 ends the trace. Everything is big-endian as DataOutputStream
+ * writes it. Obstacles and resources are not in the trace; they never change
+ * during an episode and are in the episode's initstate.xml.
+ *
+ * Usage: ReplayTrace history.xml initstate.xml trace.bin
+ */
+public class ReplayTrace {
+
+    private static final int MAGIC = 0x4D4D5452;
+    private static final int VERSION = 1;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ReplayTrace history.xml initstate.xml trace.bin");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        int rounds;
+        ReplayReader replay = new ReplayReader(args[0], args[1]);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[2])));
+        try {
+            rounds = write(replay, out);
+        } finally {
+            out.close();
+            replay.close();
+        }
+        System.out.printf("%d rounds written to %s (%d bytes) in %.1fms%n",
+                rounds, args[2], new java.io.File(args[2]).length(), (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Writes every remaining round of replay to out.
+     *
+     * @return The number of rounds written
+     */
+    static int write(ReplayReader replay, DataOutputStream out) throws Exception {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        boolean header = false;
+        int rounds = 0;
+        while (replay.next()) {
+            State.StateView view = replay.view();
+            if (!header) {
+                out.writeShort(view.getXExtent());
+                out.writeShort(view.getYExtent());
+                header = true;
+            }
+            out.writeInt(replay.round());
+            out.writeShort(view.getAllUnitIds().size());
+            for (Unit.UnitView unit : view.getAllUnits()) {
+                out.writeInt(unit.getID());
+                out.writeByte(unit.getTemplateView().getPlayer());
+                out.writeByte(unit.getXPosition());
+                out.writeByte(unit.getYPosition());
+                out.writeShort(unit.getHP());
+            }
+            out.writeShort(replay.actionCount());
+            for (int i = 0; i < replay.actionCount(); i++) {
+                out.writeInt(replay.actionUnit(i));
+                out.writeByte(replay.actionKind(i));
+                out.writeInt(replay.actionArg(i));
+            }
+            rounds++;
+        }
+        if (!header) {
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        out.writeInt(-1);
+        return rounds;
+    }
+
+    /**
+     * Reads a trace back one round at a time into reused arrays.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        final int xExtent;
+        final int yExtent;
+
+        int round;
+        int unitCount;
+        int[] unitIds = new int[16];
+        int[] players = new int[16];
+        int[] xs = new int[16];
+        int[] ys = new int[16];
+        int[] hps = new int[16];
+        int actionCount;
+        int[] actionUnits = new int[16];
+        int[] actionKinds = new int[16];
+        int[] actionArgs = new int[16];
+
+        Reader(String file) throws IOException {
+            this(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        Reader(InputStream stream) throws IOException {
+            in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a replay trace");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported replay trace version " + version);
+            }
+            xExtent = in.readUnsignedShort();
+            yExtent = in.readUnsignedShort();
+        }
+
+        /**
+         * @return Whether another round was read
+         */
+        boolean next() throws IOException {
+            round = in.readInt();
+            if (round < 0) {
+                return false;
+            }
+            unitCount = in.readUnsignedShort();
+            if (unitCount > unitIds.length) {
+                unitIds = new int[unitCount];
+                players = new int[unitCount];
+                xs = new int[unitCount];
+                ys = new int[unitCount];
+                hps = new int[unitCount];
+            }
+            for (int i = 0; i < unitCount; i++) {
+                unitIds[i] = in.readInt();
+                players[i] = in.readUnsignedByte();
+                xs[i] = in.readUnsignedByte();
+                ys[i] = in.readUnsignedByte();
+                hps[i] = in.readShort();
+            }
+            actionCount = in.readUnsignedShort();
+            if (actionCount > actionUnits.length) {
+                actionUnits = new int[actionCount];
+                actionKinds = new int[actionCount];
+                actionArgs = new int[actionCount];
+            }
+            for (int i = 0; i < actionCount; i++) {
+                actionUnits[i] = in.readInt();
+                actionKinds[i] = in.readUnsignedByte();
+                actionArgs[i] = in.readInt();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
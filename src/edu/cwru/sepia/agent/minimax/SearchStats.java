@@ -0,0 +1,175 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of what a search did, shared by all of its threads. LongAdder
+ * keeps increments from different threads off each other's cache lines.
+ *
+ * Move generation time covers getMoves() in the in-place search and the child
+ * cursor in the copy search; evaluation time covers getUtility() at the
+ * leaves. They are only timed when timed is set, as each timed call costs two
+ * System.nanoTime() reads on top of its own time; otherwise only the counts are
+ * kept. Searchers are given no SearchStats at all when statistics are off, so
+ * then none of this is on the hot path.
+ */
+final class SearchStats {
+
+    /** Cutoffs are counted by the index of the child causing them, the last bucket taking the rest */
+    static final int CUTOFF_BUCKETS = 8;
+
+    final LongAdder nodes = new LongAdder();
+    final LongAdder leaves = new LongAdder();
+    final LongAdder ttProbes = new LongAdder();
+    final LongAdder ttHits = new LongAdder();
+    final LongAdder ttCutoffs = new LongAdder();
+    /* PVS null window searches that failed high and were searched again, and aspiration windows the root fell out of */
+    final LongAdder researches = new LongAdder();
+    final LongAdder aspirationFails = new LongAdder();
+    final LongAdder[] cutoffsByChild = new LongAdder[CUTOFF_BUCKETS];
+    final LongAccumulator maxPly = new LongAccumulator(Math::max, 0);
+    /* Ponder searches stopped by a turn, how many of them pondered the position the turn came with, and their nodes */
+    final LongAdder ponders = new LongAdder();
+    final LongAdder ponderHits = new LongAdder();
+    final LongAdder ponderNodes = new LongAdder();
+    /* Turns answered from the opening book without searching */
+    final LongAdder bookHits = new LongAdder();
+    /* Monte Carlo playouts; their tree and rollout moves are counted as nodes */
+    final LongAdder playouts = new LongAdder();
+    /* Nodes the tablebase found a forced win for, see Tablebase */
+    final LongAdder tablebaseHits = new LongAdder();
+    /* Nodes searched past the depth by the quiescence search, also counted as nodes */
+    final LongAdder quiescenceNodes = new LongAdder();
+    final LongAdder moveGenerationNanos = new LongAdder();
+    final LongAdder evaluationNanos = new LongAdder();
+    final LongAdder searchNanos = new LongAdder();
+    /* Number of searches added up in this object */
+    final LongAdder searches = new LongAdder();
+    /* Whether move generation and evaluation are timed call by call */
+    final boolean timed;
+
+    SearchStats() {
+        this(false);
+    }
+
+    SearchStats(boolean timed) {
+        this.timed = timed;
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            cutoffsByChild[i] = new LongAdder();
+        }
+    }
+
+    void cutoff(int childIndex) {
+        cutoffsByChild[Math.min(childIndex, CUTOFF_BUCKETS - 1)].increment();
+    }
+
+    long cutoffs() {
+        long sum = 0;
+        for (LongAdder bucket : cutoffsByChild) {
+            sum += bucket.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the counts of other to these, for totals over several searches.
+     */
+    void add(SearchStats other) {
+        nodes.add(other.nodes.sum());
+        leaves.add(other.leaves.sum());
+        ttProbes.add(other.ttProbes.sum());
+        ttHits.add(other.ttHits.sum());
+        ttCutoffs.add(other.ttCutoffs.sum());
+        researches.add(other.researches.sum());
+        aspirationFails.add(other.aspirationFails.sum());
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            cutoffsByChild[i].add(other.cutoffsByChild[i].sum());
+        }
+        maxPly.accumulate(other.maxPly.get());
+        ponders.add(other.ponders.sum());
+        ponderHits.add(other.ponderHits.sum());
+        ponderNodes.add(other.ponderNodes.sum());
+        bookHits.add(other.bookHits.sum());
+        playouts.add(other.playouts.sum());
+        tablebaseHits.add(other.tablebaseHits.sum());
+        quiescenceNodes.add(other.quiescenceNodes.sum());
+        moveGenerationNanos.add(other.moveGenerationNanos.sum());
+        evaluationNanos.add(other.evaluationNanos.sum());
+        searchNanos.add(other.searchNanos.sum());
+        searches.add(other.searches.sum());
+    }
+
+    void reset() {
+        nodes.reset();
+        leaves.reset();
+        ttProbes.reset();
+        ttHits.reset();
+        ttCutoffs.reset();
+        researches.reset();
+        aspirationFails.reset();
+        for (LongAdder bucket : cutoffsByChild) {
+            bucket.reset();
+        }
+        maxPly.reset();
+        ponders.reset();
+        ponderHits.reset();
+        ponderNodes.reset();
+        bookHits.reset();
+        playouts.reset();
+        tablebaseHits.reset();
+        quiescenceNodes.reset();
+        moveGenerationNanos.reset();
+        evaluationNanos.reset();
+        searchNanos.reset();
+        searches.reset();
+    }
+
+    /**
+     * @return The counters as one line of space separated name=value pairs,
+     * times in milliseconds, after the given prefix fields
+     */
+    String format(String prefix) {
+        long nodeCount = nodes.sum();
+        long searchTime = searchNanos.sum();
+        StringBuilder line = new StringBuilder(prefix);
+        line.append(" searches=").append(searches.sum());
+        line.append(" nodes=").append(nodeCount);
+        line.append(" leaves=").append(leaves.sum());
+        line.append(" max-ply=").append(maxPly.get());
+        line.append(" cutoffs=").append(cutoffs());
+        line.append(" cutoffs-by-child=");
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            line.append(i == 0 ? "" : ",").append(cutoffsByChild[i].sum());
+        }
+        line.append(" tt-probes=").append(ttProbes.sum());
+        line.append(" tt-hits=").append(ttHits.sum());
+        line.append(" tt-cutoffs=").append(ttCutoffs.sum());
+        line.append(" researches=").append(researches.sum());
+        line.append(" aspiration-fails=").append(aspirationFails.sum());
+        long ponderCount = ponders.sum();
+        if (ponderCount > 0) {
+            line.append(String.format(" ponders=%d ponder-hits=%d ponder-hit-rate=%.1f%% ponder-nodes=%d",
+                    ponderCount, ponderHits.sum(), 100.0 * ponderHits.sum() / ponderCount, ponderNodes.sum()));
+        }
+        if (bookHits.sum() > 0) {
+            line.append(" book-hits=").append(bookHits.sum());
+        }
+        if (playouts.sum() > 0) {
+            line.append(" playouts=").append(playouts.sum());
+        }
+        if (tablebaseHits.sum() > 0) {
+            line.append(" tb-hits=").append(tablebaseHits.sum());
+        }
+        if (quiescenceNodes.sum() > 0) {
+            line.append(" q-nodes=").append(quiescenceNodes.sum());
+        }
+        line.append(String.format(" search-ms=%.3f", searchTime / 1e6));
+        if (timed) {
+            line.append(String.format(" movegen-ms=%.3f eval-ms=%.3f",
+                    moveGenerationNanos.sum() / 1e6, evaluationNanos.sum() / 1e6));
+        }
+        line.append(String.format(" nodes-per-sec=%.0f", searchTime == 0 ? 0 : nodeCount / (searchTime / 1e9)));
+        return line.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Canonical forms of GameState positions, equal exactly for positions that
+ * only differ by a symmetry of the game and so have the same minimax value.
+ * GameState.getMoves() uses them to drop a move whose child is such an image
+ * of an earlier sibling.
+ *
+ * The one symmetry used is reflecting the map across its main diagonal, when
+ * the map is square and its resources lie symmetrically (see
+ * MapLayer.isTransposable). This is the only reflection or rotation that
+ * keeps the moves units may make, since every direction but SOUTHEAST is
+ * allowed (see MapLayer.isStep).
+ *
+ * Swapping identical units of one side is not one: joint moves are generated
+ * in unit order, so the first unit may not step into the second's square
+ * while the second may step into the square the first just left. A position
+ * and its image with the two units swapped have different moves, and can
+ * have different values. With factored moves no two siblings are swaps of
+ * each other anyway, as the unit that does not move keeps its square.
+ *
+ * The form of a position is one packed record per unit of its HP and square,
+ * in unit order; the lexicographically smaller of the forms of the position
+ * and its transpose is taken. Being the position itself up to the
+ * reflection, two forms are only equal for equivalent positions, so no move
+ * is dropped for a mere hash collision. Forms are only compared between
+ * positions with the same side to move.
+ *
+ * mayRepeat() only filters with hashed square keys, which may let through
+ * moves that turn out to have no symmetric sibling but never the other way
+ * round. Like the Zobrist keys, those are derived from the unit ids rather
+ * than drawn at random.
+ */
+final class Symmetry {
+
+    private final int xExtent;
+    /* Per unit index, its square keys */
+    private final long[][] squareKeys;
+    /* Scratch for the transposed form */
+    private final long[] transposed;
+
+    private Symmetry(int xExtent, long[][] squareKeys) {
+        this.xExtent = xExtent;
+        this.squareKeys = squareKeys;
+        this.transposed = new long[squareKeys.length];
+    }
+
+    /**
+     * @param units Packed unit records as laid out in GameState
+     * @return The symmetries of the position, or null if it has none to reduce
+     */
+    static Symmetry of(MapLayer map, int[] units) {
+        if (!map.isTransposable()) {
+            return null;
+        }
+        int numUnits = units.length / GameState.UNIT_FIELDS;
+        int cells = map.getXExtent() * map.getYExtent();
+        long[][] squareKeys = new long[numUnits][cells];
+        for (int unit = 0; unit < numUnits; unit++) {
+            long id = units[unit * GameState.UNIT_FIELDS + GameState.ID];
+            for (int cell = 0; cell < cells; cell++) {
+                squareKeys[unit][cell] = Zobrist.mix(3L << 60 ^ id << 40 ^ (long) cell << 8 ^ 1);
+            }
+        }
+        return new Symmetry(map.getXExtent(), squareKeys);
+    }
+
+    /**
+     * Tells whether two children of a position whose side to move moves
+     * unit1 and unit2 can have the same canonical form, so that getMoves()
+     * only compares forms where that can happen: the units that do not move
+     * must already stand symmetrically, as no action moves them.
+     *
+     * @param unit2 The second unit to move, or -1 if only unit1 moves
+     */
+    boolean mayRepeat(int[] units, int unit1, int unit2) {
+        long plain = 0;
+        long transposed = 0;
+        for (int unit = 0; unit < squareKeys.length; unit++) {
+            int base = unit * GameState.UNIT_FIELDS;
+            if (unit != unit1 && unit != unit2 && units[base + GameState.HP] > 0) {
+                int x = units[base + GameState.X];
+                int y = units[base + GameState.Y];
+                plain += squareKeys[unit][y * xExtent + x];
+                transposed += squareKeys[unit][x * xExtent + y];
+            }
+        }
+        return plain == transposed;
+    }
+
+    /**
+     * Writes the canonical form of the position held in units to form, which
+     * holds one record per unit.
+     */
+    void canonicalForm(int[] units, long[] form) {
+        boolean smaller = false;
+        boolean decided = false;
+        for (int unit = 0; unit < squareKeys.length; unit++) {
+            int base = unit * GameState.UNIT_FIELDS;
+            int hp = units[base + GameState.HP];
+            if (hp <= 0) {
+                // A dead unit's square is not part of the form
+                form[unit] = record(0, 0);
+                transposed[unit] = form[unit];
+            } else {
+                int x = units[base + GameState.X];
+                int y = units[base + GameState.Y];
+                form[unit] = record(hp, y * xExtent + x);
+                transposed[unit] = record(hp, x * xExtent + y);
+            }
+            if (!decided && transposed[unit] != form[unit]) {
+                smaller = transposed[unit] < form[unit];
+                decided = true;
+            }
+        }
+        if (smaller) {
+            System.arraycopy(transposed, 0, form, 0, form.length);
+        }
+    }
+
+    private static long record(int hp, int cell) {
+        return (long) hp << 32 | cell;
+    }
+}
@@ -0,0 +1,390 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.util.Direction;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An endgame table for one footman against one archer on one map, solved
+ * offline by retrograde analysis over the moves GameState allows, and probed
+ * by AlphaBetaSearcher (MinimaxAlphaBeta tablebase=file) in place of a search
+ * once a game is down to those two units.
+ *
+ * A position is the side to move, the footman's and the archer's squares and
+ * their HP as the number of hits each can still take. For every position the
+ * table holds the number of moves (plys) in which the footman kills the
+ * archer whatever the archer does, or 0 when it cannot be forced within 255
+ * moves (usually because the archer can run forever). Both units' hits are
+ * solved up to those they start the map with, so every number of moves is
+ * exact and the search can rank wins by it; a unit healthier than that is
+ * not in the table. That takes 2 * archer hits * footman hits * cells^2
+ * bytes, about 100MB for the 25x19 maps in data/. Positions with more units
+ * are not covered: three units on those maps already have over 10^8
+ * placements before HP is counted.
+ *
+ * The file holds MAGIC, VERSION, the map's extents, the footman's and the
+ * archer's attack, the archer's and the footman's hits, the map's blocked
+ * cells as a bitset of longs, then one byte per position (see index). It is
+ * memory-mapped rather than read, so a probe is one byte read and opening it
+ * costs nothing until positions are probed.
+ *
+ * Usage: Tablebase map.xml table.tb
+ */
+final class Tablebase {
+
+    private static final int MAGIC = 0x4D4D5442;
+    private static final int VERSION = 2;
+    /** Value of a won game for the footmen; a search scores a win n moves from its root WIN_VALUE - n */
+    static final int WIN_VALUE = 1 << 30;
+
+    private static final Direction[] STEPS = steps();
+
+    private final int xExtent;
+    private final int yExtent;
+    private final int cells;
+    private final int footmanAttack;
+    private final int archerAttack;
+    private final int archerHits;
+    private final int footmanHits;
+    private final long[] blocked;
+    private final MappedByteBuffer values;
+    private final int valuesOffset;
+    /* The last layers found to match and not to match, so asking again about a map is one comparison */
+    private volatile MapLayer matched;
+    private volatile MapLayer mismatched;
+
+    private Tablebase(int xExtent, int yExtent, int footmanAttack, int archerAttack, int archerHits, int footmanHits,
+                      long[] blocked, MappedByteBuffer values, int valuesOffset) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.cells = xExtent * yExtent;
+        this.footmanAttack = footmanAttack;
+        this.archerAttack = archerAttack;
+        this.archerHits = archerHits;
+        this.footmanHits = footmanHits;
+        this.blocked = blocked;
+        this.values = values;
+        this.valuesOffset = valuesOffset;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: Tablebase map.xml table.tb");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        GameState state = new GameState(MapLoader.load(args[0]));
+        if (state.getNumMMUnits() == 0 || state.getNumMMUnits() == state.getNumUnits()) {
+            System.err.println(args[0] + " needs a footman and an archer to take their stats from");
+            System.exit(1);
+        }
+        int footman = 0;
+        int archer = state.getNumMMUnits();
+        int footmanAttack = state.get(footman, GameState.ATTK);
+        int archerAttack = state.get(archer, GameState.ATTK);
+        int archerHits = hits(state.get(archer, GameState.HP), footmanAttack);
+        int footmanHits = hits(state.get(footman, GameState.HP), archerAttack);
+        MapLayer map = state.getMap();
+
+        byte[] values = solve(map, archerHits, footmanHits);
+        int wins = 0;
+        int longest = 0;
+        for (byte value : values) {
+            if (value != 0) {
+                wins++;
+                longest = Math.max(longest, value & 0xFF);
+            }
+        }
+        write(args[1], map, footmanAttack, archerAttack, archerHits, footmanHits, values);
+        System.out.printf("%d positions, %d won by the footman, longest win %d moves, written to %s in %.1fs%n",
+                values.length, wins, longest, args[1], (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Memory-maps a table written by main.
+     */
+    static Tablebase open(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a tablebase");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tablebase version " + version);
+            }
+            int xExtent = buffer.getInt();
+            int yExtent = buffer.getInt();
+            int footmanAttack = buffer.getInt();
+            int archerAttack = buffer.getInt();
+            int archerHits = buffer.getInt();
+            int footmanHits = buffer.getInt();
+            long[] blocked = new long[(xExtent * yExtent + 63) >>> 6];
+            for (int i = 0; i < blocked.length; i++) {
+                blocked[i] = buffer.getLong();
+            }
+            long size = 2L * archerHits * footmanHits * xExtent * yExtent * xExtent * yExtent;
+            if (channel.size() - buffer.position() != size) {
+                throw new IOException("Tablebase is truncated");
+            }
+            return new Tablebase(xExtent, yExtent, footmanAttack, archerAttack, archerHits, footmanHits, blocked,
+                    buffer, buffer.position());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Whether this table was solved for map
+     */
+    boolean matches(MapLayer map) {
+        if (map == matched) {
+            return true;
+        }
+        if (map == mismatched) {
+            return false;
+        }
+        boolean same = map.getXExtent() == xExtent && map.getYExtent() == yExtent;
+        for (int cell = 0; same && cell < cells; cell++) {
+            same = map.isBlocked(cell % xExtent, cell / xExtent) == ((blocked[cell >>> 6] & 1L << cell) != 0);
+        }
+        if (same) {
+            matched = map;
+        } else {
+            mismatched = map;
+        }
+        return same;
+    }
+
+    /**
+     * Looks state up, which must be on a map the table matches().
+     *
+     * @return The number of moves in which the footman kills the archer, or 0
+     * if the table does not know one: the footman cannot force it, state does
+     * not have exactly one unit a side, or its units are not the ones solved
+     */
+    int probe(GameState state) {
+        int footman = -1;
+        int archer = -1;
+        for (int unit = 0; unit < state.getNumUnits(); unit++) {
+            if (!state.isAlive(unit)) {
+                continue;
+            }
+            if (state.isMMUnit(unit) ? footman >= 0 : archer >= 0) {
+                return 0;
+            }
+            if (state.isMMUnit(unit)) {
+                footman = unit;
+            } else {
+                archer = unit;
+            }
+        }
+        if (footman < 0 || archer < 0 || state.get(footman, GameState.ATTK) != footmanAttack
+                || state.get(archer, GameState.ATTK) != archerAttack) {
+            return 0;
+        }
+        int archerLeft = hits(state.get(archer, GameState.HP), footmanAttack);
+        int footmanLeft = hits(state.get(footman, GameState.HP), archerAttack);
+        if (archerLeft > archerHits || footmanLeft > footmanHits) {
+            return 0;
+        }
+        long index = index(cells, archerHits, footmanHits, state.isMMTurn() ? 0 : 1, archerLeft, footmanLeft,
+                state.get(footman, GameState.Y) * xExtent + state.get(footman, GameState.X),
+                state.get(archer, GameState.Y) * xExtent + state.get(archer, GameState.X));
+        return values.get(valuesOffset + (int) index) & 0xFF;
+    }
+
+    /**
+     * @param side 0 with the footman to move, 1 with the archer
+     * @param archerLeft The archer's hits left, 1 to archerHits
+     * @param footmanLeft The footman's hits left, 1 to footmanHits
+     * @return The position's byte in the table
+     */
+    private static long index(int cells, int archerHits, int footmanHits, int side, int archerLeft, int footmanLeft,
+                              int footman, int archer) {
+        long block = (side * archerHits + archerLeft - 1) * footmanHits + footmanLeft - 1;
+        return (block * cells + footman) * cells + archer;
+    }
+
+    /**
+     * @return The hits a unit with hp can take from an attack of attack before it dies
+     */
+    private static int hits(int hp, int attack) {
+        return (hp + attack - 1) / attack;
+    }
+
+    /**
+     * Solves every position by retrograde analysis, one layer per number of
+     * moves: a position with the footman to move is won in k moves if one of
+     * its moves kills the archer (k = 1) or leads to a position won in k - 1,
+     * one with the archer to move if every move it has does, the longest
+     * taking k - 1. Each layer only looks at the layer before it, so every
+     * position gets its shortest win. A unit with no move ends nothing, so
+     * such a position is left unsolved, as is the archer killing the footman.
+     */
+    private static byte[] solve(MapLayer map, int archerHits, int footmanHits) {
+        int xExtent = map.getXExtent();
+        int cells = xExtent * map.getYExtent();
+        // Step targets by cell and step, -1 off the map
+        int[] targets = new int[cells * STEPS.length];
+        boolean[] open = new boolean[cells];
+        for (int cell = 0; cell < cells; cell++) {
+            int x = cell % xExtent;
+            int y = cell / xExtent;
+            open[cell] = !map.isBlocked(x, y);
+            for (int s = 0; s < STEPS.length; s++) {
+                int tx = x + STEPS[s].xComponent();
+                int ty = y + STEPS[s].yComponent();
+                boolean onMap = tx >= 0 && ty >= 0 && tx < xExtent && ty < map.getYExtent();
+                targets[cell * STEPS.length + s] = onMap ? ty * xExtent + tx : -1;
+            }
+        }
+
+        long size = 2L * archerHits * footmanHits * cells * cells;
+        if (size > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("Map too large for a tablebase");
+        }
+        byte[] values = new byte[(int) size];
+        for (int k = 1; k <= 255; k++) {
+            int solved = 0;
+            for (int side = 0; side < 2; side++) {
+                for (int archerLeft = 1; archerLeft <= archerHits; archerLeft++) {
+                    for (int footmanLeft = 1; footmanLeft <= footmanHits; footmanLeft++) {
+                        for (int footman = 0; footman < cells; footman++) {
+                            if (!open[footman]) {
+                                continue;
+                            }
+                            int base = (int) index(cells, archerHits, footmanHits, side, archerLeft, footmanLeft, footman, 0);
+                            for (int archer = 0; archer < cells; archer++) {
+                                if (values[base + archer] != 0 || !open[archer] || archer == footman) {
+                                    continue;
+                                }
+                                boolean won = side == 0
+                                        ? footmanWins(values, targets, open, cells, archerHits, footmanHits,
+                                                archerLeft, footmanLeft, footman, archer, k)
+                                        : archerLoses(values, targets, open, cells, archerHits, footmanHits,
+                                                archerLeft, footmanLeft, footman, archer, k);
+                                if (won) {
+                                    values[base + archer] = (byte) k;
+                                    solved++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            if (solved == 0) {
+                break;
+            }
+        }
+        return values;
+    }
+
+    private static boolean footmanWins(byte[] values, int[] targets, boolean[] open, int cells, int archerHits,
+                                       int footmanHits, int archerLeft, int footmanLeft, int footman, int archer, int k) {
+        for (int s = 0; s < STEPS.length; s++) {
+            int target = targets[footman * STEPS.length + s];
+            if (target == archer) {
+                if (archerLeft == 1 ? k == 1 : k > 1
+                        && value(values, cells, archerHits, footmanHits, 1, archerLeft - 1, footmanLeft, footman, archer) == k - 1) {
+                    return true;
+                }
+            } else if (target >= 0 && open[target] && k > 1
+                    && value(values, cells, archerHits, footmanHits, 1, archerLeft, footmanLeft, target, archer) == k - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean archerLoses(byte[] values, int[] targets, boolean[] open, int cells, int archerHits,
+                                       int footmanHits, int archerLeft, int footmanLeft, int footman, int archer, int k) {
+        int longest = 0;
+        for (int s = 0; s < STEPS.length; s++) {
+            int target = targets[archer * STEPS.length + s];
+            int value;
+            if (target == footman) {
+                if (footmanLeft == 1) {
+                    return false;
+                }
+                value = value(values, cells, archerHits, footmanHits, 0, archerLeft, footmanLeft - 1, footman, archer);
+            } else if (target >= 0 && open[target]) {
+                value = value(values, cells, archerHits, footmanHits, 0, archerLeft, footmanLeft, footman, target);
+            } else {
+                continue;
+            }
+            // Unsolved, or solved in this layer and so longer than k - 1
+            if (value == 0 || value >= k) {
+                return false;
+            }
+            longest = Math.max(longest, value);
+        }
+        return longest == k - 1 && longest > 0;
+    }
+
+    private static int value(byte[] values, int cells, int archerHits, int footmanHits, int side, int archerLeft,
+                             int footmanLeft, int footman, int archer) {
+        return values[(int) index(cells, archerHits, footmanHits, side, archerLeft, footmanLeft, footman, archer)] & 0xFF;
+    }
+
+    private static void write(String file, MapLayer map, int footmanAttack, int archerAttack, int archerHits,
+                              int footmanHits, byte[] values) throws IOException {
+        int xExtent = map.getXExtent();
+        int yExtent = map.getYExtent();
+        long[] blocked = new long[(xExtent * yExtent + 63) >>> 6];
+        for (int y = 0; y < yExtent; y++) {
+            for (int x = 0; x < xExtent; x++) {
+                if (map.isBlocked(x, y)) {
+                    int cell = y * xExtent + x;
+                    blocked[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(xExtent);
+            out.writeInt(yExtent);
+            out.writeInt(footmanAttack);
+            out.writeInt(archerAttack);
+            out.writeInt(archerHits);
+            out.writeInt(footmanHits);
+            for (long word : blocked) {
+                out.writeLong(word);
+            }
+            out.write(values);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return The directions units may step in, as GameState generates them
+     */
+    private static Direction[] steps() {
+        int count = 0;
+        for (Direction d : Direction.values()) {
+            if (MapLayer.isStep(d)) {
+                count++;
+            }
+        }
+        Direction[] steps = new Direction[count];
+        count = 0;
+        for (Direction d : Direction.values()) {
+            if (MapLayer.isStep(d)) {
+                steps[count++] = d;
+            }
+        }
+        return steps;
+    }
+}
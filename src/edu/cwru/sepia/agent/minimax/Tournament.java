@@ -0,0 +1,468 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.StateCreator;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.experiment.Configuration;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays episodes of the scenario configs in data/ without a VisualAgent,
+ * spread over a thread pool, with MinimaxAlphaBeta (or MonteCarloTreeSearch)
+ * as player 0 and the config's own agent as player 1. Reports the win rate,
+ * the turns the wins took and the p50/p99 time player 0 took per turn for
+ * each config, on stdout and as JSON in the report file.
+ *
+ * The map is loaded with MapLoader and played on SEPIA's SimpleModel, the
+ * model SimpleModelEpisodicRunner uses, with both agents acting every step
+ * as SEPIA's default SimultaneousTurnTracker has them. An episode still
+ * going after maxTurns steps counts as a draw. A player 1 agent class that
+ * is not on the classpath is replaced by ArcherAgent.
+ *
+ * Usage: Tournament [-agent minimax|mcts] [-episodes N] [-threads N] [-depth N]
+ *        [-maxTurns N] [-out file] config... [-- option...]
+ * The number of plys is the config's MinimaxAlphaBeta argument unless -depth
+ * is given; options are agent options as after the number of plys, e.g.
+ * "pvs=on ponder=on". With -agent mcts player 0 is MonteCarloTreeSearch,
+ * which takes no number of plys, and options are its options, e.g.
+ * "timeMs=100". Defaults: minimax, 10 episodes, one thread per core, 500
+ * turns, tournament.json, and the Combat and Game2fv* configs.
+ *
+ * To compare the two engines per unit of CPU, run both with one thread per
+ * agent and a time budget each, e.g. -- "timeMs=100" for minimax (iterative
+ * deepening) and -agent mcts -- "timeMs=100", and compare the win rates.
+ */
+public class Tournament {
+
+    private static final String DEFAULT_OPPONENT = "ArcherAgent";
+    static final String MINIMAX = "minimax";
+    private static final String MCTS = "mcts";
+
+    public static void main(String[] args) throws Exception {
+        String agent = MINIMAX;
+        int episodes = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int depth = 0;
+        int maxTurns = 500;
+        String out = "tournament.json";
+        List<String> configs = new ArrayList<String>();
+        String[] options = new String[0];
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                options = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            } else if (args[i].equals("-agent")) {
+                agent = args[++i];
+                if (!agent.equals(MINIMAX) && !agent.equals(MCTS)) {
+                    System.err.println("Unknown agent " + agent + ", expected " + MINIMAX + " or " + MCTS);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-episodes")) {
+                episodes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-depth")) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-maxTurns")) {
+                maxTurns = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-out")) {
+                out = args[++i];
+            } else {
+                configs.add(args[i]);
+            }
+        }
+        if (configs.isEmpty()) {
+            configs.addAll(Arrays.asList("data/CombatAgentConfig.xml", "data/GameConfig2fv2a.xml",
+                    "data/GameConfig2fv1a_Obstacles.xml", "data/GameConfig2fv2a_Obstacles.xml"));
+        }
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        for (String config : configs) {
+            scenarios.add(Scenario.read(config, agent, depth, options));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<List<Future<Episode>>> futures = new ArrayList<List<Future<Episode>>>();
+        long start = System.nanoTime();
+        for (final Scenario scenario : scenarios) {
+            List<Future<Episode>> episodeFutures = new ArrayList<Future<Episode>>();
+            for (int e = 0; e < episodes; e++) {
+                final int seed = e;
+                final int turnLimit = maxTurns;
+                episodeFutures.add(pool.submit(new Callable<Episode>() {
+                    @Override
+                    public Episode call() throws Exception {
+                        return play(scenario, seed, turnLimit);
+                    }
+                }));
+            }
+            futures.add(episodeFutures);
+        }
+
+        List<Summary> summaries = new ArrayList<Summary>();
+        try {
+            for (int s = 0; s < scenarios.size(); s++) {
+                List<Episode> results = new ArrayList<Episode>();
+                for (Future<Episode> future : futures.get(s)) {
+                    results.add(future.get());
+                }
+                Summary summary = new Summary(scenarios.get(s), results);
+                summaries.add(summary);
+                System.out.println(summary.format());
+            }
+        } finally {
+            // A failed episode would otherwise leave the pool's threads keeping the JVM up
+            pool.shutdownNow();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d configs x %d episodes on %d threads in %.1fs, report in %s%n",
+                scenarios.size(), episodes, threads, elapsed, out);
+        writeReport(out, summaries, episodes, threads, maxTurns, elapsed);
+    }
+
+    /**
+     * Plays one episode of scenario.
+     *
+     * @param seed The seed of the model's random numbers
+     */
+    static Episode play(final Scenario scenario, int seed, int maxTurns) throws Exception {
+        Configuration configuration = new Configuration();
+        for (Map.Entry<String, String> parameter : scenario.modelParameters.entrySet()) {
+            configuration.put(parameter.getKey(), parameter.getValue());
+        }
+        StateCreator creator = new StateCreator() {
+            @Override
+            public State createState() {
+                try {
+                    return MapLoader.loadState(scenario.mapFile);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Could not load " + scenario.mapFile, e);
+                }
+            }
+        };
+        SimpleModel model = new SimpleModel(creator.createState(), seed, creator, configuration);
+        Agent searcher = scenario.newAgent();
+        Agent opponent = scenario.newOpponent();
+        Agent[] agents = { searcher, opponent };
+
+        Episode episode = new Episode();
+        int baseHealth = totalHealth(model.getState(), 0, true);
+        int opponentBaseHealth = totalHealth(model.getState(), opponent.getPlayerNumber(), true);
+        for (int turn = 0; turn < maxTurns && !model.isTerminated(); turn++) {
+            for (Agent agent : agents) {
+                int player = agent.getPlayerNumber();
+                State.StateView view = model.getState().getView(player);
+                long start = System.nanoTime();
+                Map<Integer, Action> actions = turn == 0
+                        ? agent.initialStep(view, model.getHistory().getView(player))
+                        : agent.middleStep(view, model.getHistory().getView(player));
+                if (agent == searcher) {
+                    episode.latencies.add(System.nanoTime() - start);
+                }
+                if (actions != null) {
+                    model.addActions(actions, player);
+                }
+            }
+            model.executeStep();
+        }
+        for (Agent agent : agents) {
+            int player = agent.getPlayerNumber();
+            agent.terminalStep(model.getState().getView(player), model.getHistory().getView(player));
+        }
+
+        episode.turns = model.getState().getTurnNumber();
+        boolean alive = hasLivingUnits(model.getState(), 0);
+        boolean enemyAlive = hasLivingUnits(model.getState(), opponent.getPlayerNumber());
+        episode.won = alive && !enemyAlive;
+        episode.lost = !alive && enemyAlive;
+        episode.healthMargin = (double) totalHealth(model.getState(), 0, false) / Math.max(1, baseHealth)
+                - (double) totalHealth(model.getState(), opponent.getPlayerNumber(), false) / Math.max(1, opponentBaseHealth);
+        return episode;
+    }
+
+    /**
+     * @param base Whether to add up the units' full HP rather than their current HP
+     */
+    private static int totalHealth(State state, int player, boolean base) {
+        int hp = 0;
+        for (Unit unit : state.getUnits(player).values()) {
+            hp += base ? unit.getTemplate().getBaseHealth() : Math.max(0, unit.getCurrentHealth());
+        }
+        return hp;
+    }
+
+    private static boolean hasLivingUnits(State state, int player) {
+        for (Unit unit : state.getUnits(player).values()) {
+            if (unit.getCurrentHealth() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeReport(String file, List<Summary> summaries, int episodes, int threads,
+                                    int maxTurns, double elapsed) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(String.format(Locale.ROOT,
+                    "{\n  \"episodes\": %d,\n  \"threads\": %d,\n  \"maxTurns\": %d,\n  \"seconds\": %.3f,\n  \"configs\": [\n",
+                    episodes, threads, maxTurns, elapsed));
+            for (int i = 0; i < summaries.size(); i++) {
+                writer.write(summaries.get(i).toJson());
+                writer.write(i + 1 < summaries.size() ? ",\n" : "\n");
+            }
+            writer.write("  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * What a config file sets up: the map, the agents and the model parameters.
+     */
+    static final class Scenario {
+        final String configFile;
+        final String mapFile;
+        final String agent;
+        final String[] agentArgs;
+        final String opponentClass;
+        final int opponentPlayer;
+        final String[] opponentArgs;
+        final Map<String, String> modelParameters = new LinkedHashMap<String, String>();
+
+        private Scenario(String configFile, String mapFile, String agent, String[] agentArgs, String opponentClass,
+                         int opponentPlayer, String[] opponentArgs) {
+            this.configFile = configFile;
+            this.mapFile = mapFile;
+            this.agent = agent;
+            this.agentArgs = agentArgs;
+            this.opponentClass = opponentClass;
+            this.opponentPlayer = opponentPlayer;
+            this.opponentArgs = opponentArgs;
+        }
+
+        /**
+         * @param agent MINIMAX or MCTS, the agent to play as player 0
+         * @param depth The number of plys, or 0 for the config's
+         * @param options Agent options added after the config's own
+         */
+        static Scenario read(String configFile, String agent, int depth, String[] options) throws Exception {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(configFile));
+            Element root = doc.getDocumentElement();
+            String mapFile = text(child(root, "Map"));
+
+            List<String> minimax = null;
+            String opponentClass = null;
+            int opponentPlayer = 1;
+            List<String> opponentArgs = new ArrayList<String>();
+            for (Element player : children(root, "Player")) {
+                int id = Integer.parseInt(player.getAttribute("Id"));
+                Element agentClass = child(player, "AgentClass");
+                String className = text(child(agentClass, "ClassName"));
+                List<String> arguments = new ArrayList<String>();
+                for (Element argument : children(agentClass, "Argument")) {
+                    arguments.add(text(argument));
+                }
+                if (className.equals(MinimaxAlphaBeta.class.getName())) {
+                    minimax = arguments;
+                } else if (id != 0 && opponentClass == null && !className.endsWith("VisualAgent")) {
+                    opponentClass = className;
+                    opponentPlayer = id;
+                    opponentArgs = arguments;
+                }
+            }
+
+            List<String> args = new ArrayList<String>();
+            if (agent.equals(MCTS)) {
+                // The config's arguments are MinimaxAlphaBeta's and do not apply
+                args.add("stats=off");
+            } else {
+                if (depth > 0) {
+                    args.add(Integer.toString(depth));
+                } else if (minimax != null && !minimax.isEmpty()) {
+                    args.add(minimax.get(0));
+                } else {
+                    throw new IllegalArgumentException(configFile + " has no MinimaxAlphaBeta depth, pass -depth");
+                }
+                // No per-turn stats lines; the config's options and then the command line's can override it
+                args.add("stats=off");
+                if (minimax != null) {
+                    args.addAll(minimax.subList(Math.min(1, minimax.size()), minimax.size()));
+                }
+            }
+            args.addAll(Arrays.asList(options));
+
+            if (opponentClass == null) {
+                opponentClass = DEFAULT_OPPONENT;
+            } else {
+                try {
+                    Class.forName(opponentClass);
+                } catch (ClassNotFoundException e) {
+                    System.err.println(configFile + ": " + opponentClass + " is not on the classpath, playing "
+                            + DEFAULT_OPPONENT + " instead");
+                    opponentClass = DEFAULT_OPPONENT;
+                    opponentArgs = new ArrayList<String>();
+                }
+            }
+
+            Scenario scenario = new Scenario(configFile, mapFile, agent, args.toArray(new String[0]), opponentClass,
+                    opponentPlayer, opponentArgs.toArray(new String[0]));
+            Element parameters = child(root, "ModelParameters");
+            if (parameters != null) {
+                for (Node node = parameters.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    if (node instanceof Element) {
+                        scenario.modelParameters.put("environment.model." + node.getNodeName(), text((Element) node));
+                    }
+                }
+            }
+            return scenario;
+        }
+
+        Agent newAgent() {
+            return agent.equals(MCTS) ? new MonteCarloTreeSearch(0, agentArgs.clone())
+                    : new MinimaxAlphaBeta(0, agentArgs.clone());
+        }
+
+        Agent newOpponent() throws Exception {
+            return (Agent) Class.forName(opponentClass).getConstructor(int.class, String[].class)
+                    .newInstance(opponentPlayer, opponentArgs.clone());
+        }
+
+        private static List<Element> children(Element parent, String tag) {
+            List<Element> elements = new ArrayList<Element>();
+            for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element && node.getNodeName().equals(tag)) {
+                    elements.add((Element) node);
+                }
+            }
+            return elements;
+        }
+
+        private static Element child(Element parent, String tag) {
+            List<Element> elements = children(parent, tag);
+            return elements.isEmpty() ? null : elements.get(0);
+        }
+
+        private static String text(Element element) {
+            return element.getTextContent().trim();
+        }
+    }
+
+    /**
+     * The outcome of one episode and player 0's time for each of its turns.
+     */
+    static final class Episode {
+        boolean won;
+        boolean lost;
+        int turns;
+        /* Player 0's share of HP left minus player 1's, from -1 to 1 */
+        double healthMargin;
+        final List<Long> latencies = new ArrayList<Long>();
+    }
+
+    /**
+     * The episodes of one config added up.
+     */
+    static final class Summary {
+        final Scenario scenario;
+        final int episodes;
+        int wins;
+        int losses;
+        int draws;
+        double meanTurnsToWin;
+        int turnsMoved;
+        double p50Ms;
+        double p99Ms;
+        double maxMs;
+
+        Summary(Scenario scenario, List<Episode> results) {
+            this.scenario = scenario;
+            this.episodes = results.size();
+            long winTurns = 0;
+            List<Long> latencies = new ArrayList<Long>();
+            for (Episode episode : results) {
+                if (episode.won) {
+                    wins++;
+                    winTurns += episode.turns;
+                } else if (episode.lost) {
+                    losses++;
+                } else {
+                    draws++;
+                }
+                latencies.addAll(episode.latencies);
+            }
+            meanTurnsToWin = wins == 0 ? 0 : (double) winTurns / wins;
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            turnsMoved = sorted.length;
+            p50Ms = percentile(sorted, 50) / 1e6;
+            p99Ms = percentile(sorted, 99) / 1e6;
+            maxMs = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6;
+        }
+
+        /** Nearest-rank percentile */
+        private static long percentile(long[] sorted, int p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        double winRate() {
+            return episodes == 0 ? 0 : (double) wins / episodes;
+        }
+
+        String format() {
+            return String.format(Locale.ROOT,
+                    "%-40s episodes=%d wins=%d losses=%d draws=%d win-rate=%.1f%% turns-to-win=%.1f"
+                            + " turn-ms-p50=%.3f turn-ms-p99=%.3f turn-ms-max=%.3f turns=%d",
+                    scenario.configFile, episodes, wins, losses, draws, 100 * winRate(), meanTurnsToWin,
+                    p50Ms, p99Ms, maxMs, turnsMoved);
+        }
+
+        String toJson() {
+            StringBuilder args = new StringBuilder();
+            for (String arg : scenario.agentArgs) {
+                args.append(args.length() == 0 ? "" : ", ").append(quote(arg));
+            }
+            return String.format(Locale.ROOT,
+                    "    {\"config\": %s, \"map\": %s, \"agent\": %s, \"agentArgs\": [%s], \"opponent\": %s,"
+                            + " \"episodes\": %d, \"wins\": %d, \"losses\": %d, \"draws\": %d, \"winRate\": %.4f,"
+                            + " \"meanTurnsToWin\": %.2f, \"turns\": %d,"
+                            + " \"turnMsP50\": %.4f, \"turnMsP99\": %.4f, \"turnMsMax\": %.4f}",
+                    quote(scenario.configFile), quote(scenario.mapFile), quote(scenario.agent), args,
+                    quote(scenario.opponentClass),
+                    episodes, wins, losses, draws, winRate(), meanTurnsToWin, turnsMoved,
+                    p50Ms, p99Ms, maxMs);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Fixed-size transposition table kept in parallel primitive arrays, indexed by
+ * the low bits of a GameState Zobrist hash. Each slot holds the value and a
+ * packed word with the best move, the remaining depth it was searched to, the
+ * bound type and the search generation that wrote it.
+ *
+ * The table is shared by all threads of a parallel search without locking.
+ * A slot stores its key XORed with the other two words, so a slot that two
+ * threads wrote at the same time, and whose words therefore belong to
+ * different entries, no longer matches its key and reads as a miss.
+ *
+ * Replacement: a slot is overwritten when it holds the same position, was
+ * written by an earlier search, or was searched no deeper than the new entry.
+ */
+final class TranspositionTable {
+
+    static final int EXACT = 0;
+    static final int LOWER = 1;
+    static final int UPPER = 2;
+
+    /**
+     * A probed entry, copied out of the table so another thread overwriting
+     * the slot cannot change it while it is used.
+     */
+    static final class Entry {
+        int move;
+        int depth;
+        int bound;
+        double value;
+    }
+
+    private final long[] keys;
+    private final long[] infos;
+    private final long[] values;
+    private final int mask;
+    private int generation;
+
+    /**
+     * @param bits log2 of the number of slots
+     */
+    TranspositionTable(int bits) {
+        keys = new long[1 << bits];
+        infos = new long[1 << bits];
+        values = new long[1 << bits];
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Marks the start of a new search so entries of earlier ones are replaced first.
+     */
+    void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * @return Whether key is in the table, in which case entry holds its data
+     */
+    boolean probe(long key, Entry entry) {
+        int slot = (int) key & mask;
+        long info = infos[slot];
+        long value = values[slot];
+        if (info == 0 || (keys[slot] ^ info ^ value) != key) {
+            return false;
+        }
+        entry.move = (int) info;
+        entry.depth = depth(info);
+        entry.bound = (int) (info >>> 40) & 3;
+        entry.value = Double.longBitsToDouble(value);
+        return true;
+    }
+
+    void store(long key, int depth, int bound, double value, int move) {
+        int slot = (int) key & mask;
+        long old = infos[slot];
+        if (old != 0 && (keys[slot] ^ old ^ values[slot]) != key && generation(old) == generation && depth(old) > depth) {
+            return;
+        }
+        // The set top bit marks the slot as used even for a depth 0 entry without a move
+        long info = 1L << 63 | (long) generation << 42 | (long) bound << 40 | (long) depth << 32 | (move & 0xFFFFFFFFL);
+        long bits = Double.doubleToRawLongBits(value);
+        values[slot] = bits;
+        infos[slot] = info;
+        keys[slot] = key ^ info ^ bits;
+    }
+
+    private static int depth(long info) {
+        return (int) (info >>> 32) & 0xFF;
+    }
+
+    private static int generation(long info) {
+        return (int) (info >>> 42) & 0xFF;
+    }
+}
@@ -0,0 +1,248 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The Monte Carlo tree search behind MonteCarloTreeSearch. Every playout
+ * walks the tree from the root by UCT (UCB1 on each node's children), adds
+ * one child of the node it stops at, plays a rollout of at most rolloutDepth
+ * moves from there and adds the result to every node on the way back.
+ *
+ * Like AlphaBetaSearcher's in-place search, one GameState is walked with
+ * makeMove/unmakeMove, and the rollouts use move buffers the searcher keeps,
+ * so a playout allocates nothing but the tree node it adds. A rollout plays
+ * GameState.rolloutMove(): every unit attacks when it can and otherwise
+ * takes the better of two random steps, which is much cheaper than
+ * generating every move of the side and still heads for the enemy. Its result
+ * is the getUtility() change since the root, squashed into (0, 1) with
+ * REWARD_SCALE; it counts for the footmen, and for the archers as one minus
+ * it. A searcher must only be used by one thread at a time.
+ */
+final class UctSearcher
+{
+    /* getUtility() change that counts as about three quarters of a win, roughly a few hits */
+    private static final double REWARD_SCALE = 32;
+    /* Deepest the tree may grow, so the path buffer has a bound */
+    private static final int MAX_TREE_DEPTH = 256;
+
+    private final double exploration;
+    private final int rolloutDepth;
+    private final SplittableRandom random;
+    /* Shared counters, or null when statistics are off */
+    private final SearchStats stats;
+
+    private final int[] moves = new int[64];
+    private final int[] scores = new int[64];
+    private final Node[] path = new Node[MAX_TREE_DEPTH + 1];
+
+    /* Root of the last search */
+    private Node root;
+
+    /**
+     * A position in the tree, reached by move from its parent. Its reward is
+     * the sum of its playouts' results for the side that played move.
+     */
+    static final class Node
+    {
+        final int move;
+        final boolean mmMove;
+        int visits;
+        double reward;
+        /* Moves of the position, best scoreAction first, and the children of the first expanded of them */
+        int[] moves;
+        Node[] children;
+        int expanded;
+
+        Node(int move, boolean mmMove)
+        {
+            this.move = move;
+            this.mmMove = mmMove;
+        }
+    }
+
+    /**
+     * @param exploration The UCB1 exploration constant
+     * @param rolloutDepth The most moves a rollout plays
+     * @param stats The counters to add to, or null for none
+     */
+    UctSearcher(double exploration, int rolloutDepth, long seed, SearchStats stats)
+    {
+        this.exploration = exploration;
+        this.rolloutDepth = rolloutDepth;
+        this.random = new SplittableRandom(seed);
+        this.stats = stats;
+    }
+
+    /**
+     * Builds a new tree for state with playouts until either the playout
+     * budget is used up or the deadline passes, which is looked at every 16
+     * playouts. state is left as it was. At least one of the two limits must
+     * be given.
+     *
+     * @param maxPlayouts The most playouts to play, or 0 for no limit
+     * @param deadline The System.nanoTime() to stop at, or Long.MAX_VALUE for none
+     * @return The number of playouts played
+     */
+    int search(GameState state, int maxPlayouts, long deadline)
+    {
+        root = new Node(0, !state.isMMTurn());
+        // Expanded before any playout, so the root's moves are known even if the deadline leaves no time for one
+        if(!state.isTerminal())
+        {
+            expandMoves(state, root);
+        }
+        double rootUtility = state.getUtility();
+        int playouts = 0;
+        while((maxPlayouts == 0 || playouts < maxPlayouts) && ((playouts & 15) != 0 || System.nanoTime() < deadline))
+        {
+            playout(state, rootUtility);
+            playouts++;
+        }
+        if(stats != null)
+        {
+            stats.playouts.add(playouts);
+        }
+        return playouts;
+    }
+
+    /**
+     * @return The root of the last search
+     */
+    Node root()
+    {
+        return root;
+    }
+
+    private void playout(GameState state, double rootUtility)
+    {
+        Node node = root;
+        int depth = 0;
+        path[0] = root;
+        while(depth < MAX_TREE_DEPTH && !state.isTerminal())
+        {
+            if(node.moves == null)
+            {
+                expandMoves(state, node);
+            }
+            Node next;
+            if(node.expanded < node.moves.length)
+            {
+                next = new Node(node.moves[node.expanded], state.isMMTurn());
+                node.children[node.expanded++] = next;
+                state.makeMove(next.move);
+                path[++depth] = next;
+                node = next;
+                break;
+            }
+            if(node.expanded == 0)
+            {
+                break;
+            }
+            next = select(node);
+            state.makeMove(next.move);
+            path[++depth] = next;
+            node = next;
+        }
+
+        double result = rollout(state, rootUtility, depth);
+
+        for(int i = depth; i >= 0; i--)
+        {
+            Node visited = path[i];
+            visited.visits++;
+            visited.reward += visited.mmMove ? result : 1 - result;
+            if(i > 0)
+            {
+                state.unmakeMove();
+            }
+            path[i] = null;
+        }
+        if(stats != null)
+        {
+            stats.nodes.add(depth + 1);
+        }
+    }
+
+    private void expandMoves(GameState state, Node node)
+    {
+        boolean timed = stats != null && stats.timed;
+        long start = timed ? System.nanoTime() : 0;
+        int count = state.getMoves(moves, scores);
+        if(timed)
+        {
+            stats.moveGenerationNanos.add(System.nanoTime() - start);
+        }
+        // Best scored first, so the likely good moves get their first playout early
+        for(int i = 1; i < count; i++)
+        {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i;
+            while(j > 0 && scores[j - 1] < score)
+            {
+                moves[j] = moves[j - 1];
+                scores[j] = scores[j - 1];
+                j--;
+            }
+            moves[j] = move;
+            scores[j] = score;
+        }
+        node.moves = Arrays.copyOf(moves, count);
+        node.children = new Node[count];
+    }
+
+    /**
+     * @return The child of node, all of whose children are expanded, with the highest UCB1 value
+     */
+    private Node select(Node node)
+    {
+        double logVisits = Math.log(node.visits);
+        Node best = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < node.expanded; i++)
+        {
+            Node child = node.children[i];
+            double value = child.reward / child.visits + exploration * Math.sqrt(logVisits / child.visits);
+            if(value > bestValue)
+            {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays up to rolloutDepth moves from state, takes them back, and returns
+     * the result for the footmen.
+     *
+     * @param ply The distance of state from the root, for the statistics
+     */
+    private double rollout(GameState state, double rootUtility, int ply)
+    {
+        int played = 0;
+        while(played < rolloutDepth && !state.isTerminal())
+        {
+            int move = state.rolloutMove(random);
+            if(move == 0)
+            {
+                break;
+            }
+            state.makeMove(move);
+            played++;
+        }
+        double result = 1 / (1 + Math.exp((rootUtility - state.getUtility()) / REWARD_SCALE));
+        for(int i = 0; i < played; i++)
+        {
+            state.unmakeMove();
+        }
+        if(stats != null)
+        {
+            stats.nodes.add(played);
+            stats.leaves.increment();
+            stats.maxPly.accumulate(ply + played);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,270 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the feature weights of GameState.getUtility() (see EvalWeights) by
+ * self-play against the configs' scripted archers, with simultaneous
+ * perturbation stochastic approximation (SPSA). Every iteration moves all
+ * the weights at once by a random +-c_k each way, plays the same games
+ * (configs and seeds) with both, and steps the weights by a_k times the
+ * difference of the two scores over the difference of the weights. The
+ * games are played as Tournament plays them, on a pool of threads.
+ *
+ * A game scores 1 for a win, -1 for a loss and 0 for a draw, plus the
+ * footmen's share of HP left minus the archers', which tells games apart
+ * when they all end the same way. The starting weights and then the
+ * current ones every -check iterations are scored on a fixed set of
+ * validation games, and the best of them is kept.
+ *
+ * The validation games are on the tuning configs, so the best weights may
+ * only suit those maps. Before anything is written they are played against
+ * the starting weights on the -holdout configs, which tuning never sees, and
+ * if they score lower there the starting weights are written instead. The
+ * weights file is given to the agent as weights=FILE.
+ *
+ * Usage: WeightTuner [-iterations N] [-games N] [-threads N] [-depth N]
+ *        [-maxTurns N] [-check N] [-step A] [-perturbation C] [-start file]
+ *        [-out file] [-holdout config]... config... [-- option...]
+ * -games is the number of games per config for each side of a perturbation,
+ * for validation and for the held-out check. Options are agent options added
+ * to every game's, as for Tournament. Defaults: 100 iterations, 4 games, one
+ * thread per core, depth 2, 200 turns, a check every 10 iterations, A=2, C=1,
+ * the default weights, weights.txt, the Game2fv* configs to tune on and the
+ * Game3fv2a and Game4fv2a configs held out.
+ */
+public class WeightTuner {
+
+    /* Bound on the magnitude of every weight, which keeps getUtility() well inside an int */
+    private static final int MAX_WEIGHT = 100;
+    /* Seeds of the validation games, apart from the iterations' */
+    private static final int VALIDATION_SEED = 1000000;
+    /* Seeds of the held-out games */
+    private static final int HOLDOUT_SEED = 2000000;
+
+    private final List<String> configs;
+    private final List<String> holdout;
+    private final String[] options;
+    private final int games;
+    private final int depth;
+    private final int maxTurns;
+    private final ExecutorService pool;
+
+    private WeightTuner(List<String> configs, List<String> holdout, String[] options, int games, int depth,
+                        int maxTurns, ExecutorService pool) {
+        this.configs = configs;
+        this.holdout = holdout;
+        this.options = options;
+        this.games = games;
+        this.depth = depth;
+        this.maxTurns = maxTurns;
+        this.pool = pool;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 100;
+        int games = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int depth = 2;
+        int maxTurns = 200;
+        int check = 10;
+        double step = 2;
+        double perturbation = 1;
+        EvalWeights start = EvalWeights.DEFAULT;
+        String out = "weights.txt";
+        List<String> configs = new ArrayList<String>();
+        List<String> holdout = new ArrayList<String>();
+        String[] options = new String[0];
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                options = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            } else if (args[i].equals("-iterations")) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-games")) {
+                games = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-depth")) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-maxTurns")) {
+                maxTurns = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-check")) {
+                check = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-step")) {
+                step = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-perturbation")) {
+                perturbation = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-start")) {
+                start = EvalWeights.read(args[++i]);
+            } else if (args[i].equals("-out")) {
+                out = args[++i];
+            } else if (args[i].equals("-holdout")) {
+                holdout.add(args[++i]);
+            } else {
+                configs.add(args[i]);
+            }
+        }
+        if (configs.isEmpty()) {
+            configs.addAll(Arrays.asList("data/GameConfig2fv2a.xml", "data/GameConfig2fv1a_Obstacles.xml",
+                    "data/GameConfig2fv2a_Obstacles.xml"));
+        }
+        if (holdout.isEmpty()) {
+            holdout.addAll(Arrays.asList("data/GameConfig3fv2a.xml", "data/GameConfig4fv2a.xml"));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            new WeightTuner(configs, holdout, options, games, depth, maxTurns, pool)
+                    .tune(start, iterations, check, step, perturbation, out);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void tune(EvalWeights start, int iterations, int check, double step, double perturbation, String out)
+            throws Exception {
+        long began = System.nanoTime();
+        double[] theta = new double[EvalWeights.NAMES.length];
+        for (int feature = 0; feature < theta.length; feature++) {
+            theta[feature] = start.get(feature);
+        }
+        EvalWeights best = start;
+        int bestIteration = 0;
+        double bestScore = score(configs, start, VALIDATION_SEED);
+        System.out.printf(Locale.ROOT, "start validation=%.4f %s%n", bestScore, start);
+
+        // The usual SPSA gain sequences, with the step's decay delayed by a tenth of the run
+        double stability = Math.max(1, iterations / 10);
+        Random random = new Random(1);
+        for (int k = 1; k <= iterations; k++) {
+            double a = step / Math.pow(k + stability, 0.602);
+            double c = perturbation / Math.pow(k, 0.101);
+            int[] plus = new int[theta.length];
+            int[] minus = new int[theta.length];
+            for (int feature = 0; feature < theta.length; feature++) {
+                double delta = random.nextBoolean() ? c : -c;
+                plus[feature] = clamp((int) Math.round(theta[feature] + delta));
+                minus[feature] = clamp((int) Math.round(theta[feature] - delta));
+                if (plus[feature] == minus[feature]) {
+                    // Rounding lost the perturbation; keep the weights one apart in the drawn direction
+                    plus[feature] = clamp(minus[feature] + (delta > 0 ? 1 : -1));
+                }
+            }
+            // Both sides play the same seeds, so the difference is down to the weights
+            int seed = k * games;
+            double plusScore = score(configs, new EvalWeights(plus), seed);
+            double minusScore = score(configs, new EvalWeights(minus), seed);
+            for (int feature = 0; feature < theta.length; feature++) {
+                if (plus[feature] != minus[feature]) {
+                    double gradient = (plusScore - minusScore) / (plus[feature] - minus[feature]);
+                    theta[feature] = Math.max(-MAX_WEIGHT, Math.min(MAX_WEIGHT, theta[feature] + a * gradient));
+                }
+            }
+            System.out.printf(Locale.ROOT, "iteration=%d plus=%.4f minus=%.4f theta=%s%n",
+                    k, plusScore, minusScore, format(theta));
+
+            if (k % check == 0 || k == iterations) {
+                EvalWeights current = new EvalWeights(round(theta));
+                double currentScore = score(configs, current, VALIDATION_SEED);
+                boolean better = currentScore > bestScore;
+                System.out.printf(Locale.ROOT, "iteration=%d validation=%.4f %s%s%n",
+                        k, currentScore, current, better ? " best" : "");
+                if (better) {
+                    best = current;
+                    bestScore = currentScore;
+                    bestIteration = k;
+                }
+            }
+        }
+        System.out.printf(Locale.ROOT, "%d iterations in %.1fs, best validation=%.4f %s%n",
+                iterations, (System.nanoTime() - began) / 1e9, bestScore, best);
+
+        if (bestIteration == 0 || Arrays.equals(best.toArray(), start.toArray())) {
+            start.write(out, String.format(Locale.ROOT, "validation score %.4f, starting weights", bestScore));
+            System.out.println("No iteration beat the starting weights, wrote them to " + out);
+            return;
+        }
+        // Both play the same held-out seeds, so the difference is down to the weights
+        double startHoldout = score(holdout, start, HOLDOUT_SEED);
+        double bestHoldout = score(holdout, best, HOLDOUT_SEED);
+        System.out.printf(Locale.ROOT, "holdout start=%.4f best=%.4f%n", startHoldout, bestHoldout);
+        if (bestHoldout < startHoldout) {
+            start.write(out, String.format(Locale.ROOT,
+                    "starting weights, as the tuned %s scored %.4f to their %.4f on the held-out configs",
+                    best, bestHoldout, startHoldout));
+            System.out.println("The tuned weights lost to the starting weights on the held-out configs,"
+                    + " wrote the starting weights to " + out);
+            return;
+        }
+        best.write(out, String.format(Locale.ROOT,
+                "validation score %.4f after %d iterations, held-out score %.4f to the starting weights' %.4f",
+                bestScore, bestIteration, bestHoldout, startHoldout));
+        System.out.println("Wrote the tuned weights to " + out);
+    }
+
+    /**
+     * Plays games games of every one of configFiles with weights, on seeds from seed up.
+     *
+     * @return The mean score of the games
+     */
+    private double score(List<String> configFiles, EvalWeights weights, int seed) throws Exception {
+        File file = File.createTempFile("weights", ".txt");
+        try {
+            weights.write(file.getPath(), null);
+            String[] agentOptions = Arrays.copyOf(options, options.length + 1);
+            agentOptions[options.length] = "weights=" + file.getPath();
+            List<Future<Tournament.Episode>> episodes = new ArrayList<Future<Tournament.Episode>>();
+            for (String config : configFiles) {
+                final Tournament.Scenario scenario = Tournament.Scenario.read(config, Tournament.MINIMAX, depth,
+                        agentOptions);
+                for (int game = 0; game < games; game++) {
+                    final int gameSeed = seed + game;
+                    episodes.add(pool.submit(new Callable<Tournament.Episode>() {
+                        @Override
+                        public Tournament.Episode call() throws Exception {
+                            return Tournament.play(scenario, gameSeed, maxTurns);
+                        }
+                    }));
+                }
+            }
+            double total = 0;
+            for (Future<Tournament.Episode> future : episodes) {
+                Tournament.Episode episode = future.get();
+                total += (episode.won ? 1 : episode.lost ? -1 : 0) + episode.healthMargin;
+            }
+            return total / episodes.size();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static int clamp(int weight) {
+        return Math.max(-MAX_WEIGHT, Math.min(MAX_WEIGHT, weight));
+    }
+
+    private static int[] round(double[] theta) {
+        int[] weights = new int[theta.length];
+        for (int feature = 0; feature < theta.length; feature++) {
+            weights[feature] = (int) Math.round(theta[feature]);
+        }
+        return weights;
+    }
+
+    private static String format(double[] theta) {
+        StringBuilder text = new StringBuilder();
+        for (int feature = 0; feature < theta.length; feature++) {
+            text.append(feature == 0 ? "" : ",").append(String.format(Locale.ROOT, "%.2f", theta[feature]));
+        }
+        return text.toString();
+    }
+}
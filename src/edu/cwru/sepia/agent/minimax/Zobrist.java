@@ -0,0 +1,76 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Zobrist keys for GameState hashing. A position hashes to the XOR of one key
+ * per unit for its (x, y) square, one per unit for its HP, SIDE_KEY when the
+ * archers are to move and actedKey partway through a factored turn, so a move
+ * updates the hash by XOR-ing out the old keys of the units it changed and
+ * XOR-ing in the new ones.
+ *
+ * Keys are derived from the unit id rather than drawn at random, so the same
+ * position hashes the same across turns and episodes.
+ */
+final class Zobrist {
+
+    static final long SIDE_KEY = mix(0x5DEECE66DL);
+
+    private final int xExtent;
+    private final int cells;
+    private final int maxHp;
+    private final long[] positionKeys;
+    private final long[] healthKeys;
+
+    /**
+     * @param units Packed unit records as laid out in GameState
+     */
+    Zobrist(int[] units, int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.cells = xExtent * yExtent;
+        int numUnits = units.length / GameState.UNIT_FIELDS;
+        int hp = 0;
+        for (int unit = 0; unit < numUnits; unit++) {
+            hp = Math.max(hp, units[unit * GameState.UNIT_FIELDS + GameState.HP]);
+        }
+        // HP never goes up during a game, so the starting maximum bounds the table
+        this.maxHp = hp;
+
+        positionKeys = new long[numUnits * cells];
+        healthKeys = new long[numUnits * (maxHp + 1)];
+        for (int unit = 0; unit < numUnits; unit++) {
+            long id = units[unit * GameState.UNIT_FIELDS + GameState.ID];
+            for (int cell = 0; cell < cells; cell++) {
+                positionKeys[unit * cells + cell] = mix(id << 40 ^ (long) cell << 8 ^ 1);
+            }
+            for (int h = 0; h <= maxHp; h++) {
+                healthKeys[unit * (maxHp + 1) + h] = mix(id << 40 ^ (long) h << 8 ^ 2);
+            }
+        }
+    }
+
+    long positionKey(int unit, int x, int y) {
+        return positionKeys[unit * cells + y * xExtent + x];
+    }
+
+    /**
+     * Dead units all share the key for 0 HP.
+     */
+    long healthKey(int unit, int hp) {
+        return healthKeys[unit * (maxHp + 1) + Math.max(0, Math.min(hp, maxHp))];
+    }
+
+    /**
+     * Key for the number of units of the side to move that have already
+     * acted this turn when moves are factored (see GameState), 0 for none.
+     */
+    static long actedKey(int acted) {
+        return acted == 0 ? 0 : mix(SIDE_KEY ^ acted);
+    }
+
+    /** SplitMix64 finalizer */
+    static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}